@@ -0,0 +1,116 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Analyzes a file of positions in parallel (the --analyze option).
+ *  Each line of the input is a position in the one-line notation of
+ *  Board.setPosition.  Blank lines and lines starting with '#' are
+ *  copied to the output.  Each position is searched by one of a pool
+ *  of worker threads, each with its own MachinePlayer and so its own
+ *  transposition table, and results are written in input order, one
+ *  line each:
+ *      POSITION ; best MOVE score SCORE depth D nodes N pv MOVE...
+ *  where SCORE is positive when it favors white, or, if the game is
+ *  already over or the line is not a position,
+ *      POSITION ; over WINNER
+ *      POSITION ; error MESSAGE
+ *  where WINNER is black, white, or tie.
+ *  @author Manaal
+ */
+class Analyzer {
+
+    /** An analyzer that searches each position to DEPTH, stopping after
+     *  about MILLIS milliseconds if MILLIS > 0, on THREADS threads. */
+    Analyzer(int depth, long millis, int threads) {
+        _depth = depth;
+        _millis = millis;
+        _threads = threads;
+    }
+
+    /** Analyze each position read from IN, writing results to OUT. */
+    void run(BufferedReader in, PrintStream out) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(_threads);
+        ThreadLocal<MachinePlayer> engines =
+            ThreadLocal.withInitial(MachinePlayer::new);
+        ArrayDeque<Future<String>> pending = new ArrayDeque<>();
+        try {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String position = line.trim();
+                pending.add(pool.submit(() ->
+                    analyze(position, engines.get())));
+                if (pending.size() >= PENDING_PER_THREAD * _threads) {
+                    out.println(result(pending.remove()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.println(result(pending.remove()));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** Return the line of output for POSITION, analyzed with ENGINE. */
+    private String analyze(String position, MachinePlayer engine) {
+        if (position.isEmpty() || position.startsWith("#")) {
+            return position;
+        }
+        Board board;
+        try {
+            board = Board.fromPosition(position);
+        } catch (IllegalArgumentException excp) {
+            return String.format("%s ; error %s", position,
+                                 excp.getMessage());
+        }
+        engine.forget();
+        MachinePlayer.Analysis analysis =
+            engine.analyze(board, _depth, _millis);
+        StringBuilder line = new StringBuilder(position);
+        if (analysis.move == 0) {
+            Piece winner = board.winner();
+            line.append(" ; over ")
+                .append(winner == Piece.EMP ? "tie" : winner.fullName());
+        } else {
+            line.append(String.format(" ; best %s score %d depth %d "
+                                      + "nodes %d pv",
+                                      Move.mv(analysis.move), analysis.score,
+                                      analysis.depth, analysis.nodes));
+            for (int move : analysis.pv) {
+                line.append(' ').append(Move.mv(move));
+            }
+        }
+        return line.toString();
+    }
+
+    /** Return the result of TASK, waiting for it if need be. */
+    private static String result(Future<String> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw new IOException("analysis interrupted");
+        } catch (ExecutionException excp) {
+            throw new IOException("analysis failed: " + excp.getCause());
+        }
+    }
+
+    /** Number of positions read ahead of output for each thread. */
+    private static final int PENDING_PER_THREAD = 4;
+
+    /** Depth to which positions are searched. */
+    private final int _depth;
+    /** Time limit per position in milliseconds, or <= 0 for none. */
+    private final long _millis;
+    /** Number of worker threads. */
+    private final int _threads;
+}
@@ -7,10 +7,13 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
+import java.util.Random;
 
 import java.util.regex.Pattern;
 
 import static java.lang.System.arraycopy;
+import static loa.Geometry.*;
+import static loa.PatternEvaluator.*;
 import static loa.Piece.*;
 import static loa.Square.*;
 
@@ -21,6 +24,13 @@ class Board {
 
     /** Default number of moves for each side that results in a draw. */
     static final int DEFAULT_MOVE_LIMIT = 60;
+    /** Room needed in an array passed to legalMoves(int[]). */
+    static final int MAX_MOVES = 8 * NUM_SQUARES;
+    /** Kinds of moves for legalMoves(int[], int): those that capture,
+     *  those that don't, and both. */
+    static final int CAPTURES = 1, QUIET_MOVES = 2, ALL_MOVES = 3;
+    /** Most digits in a number of moves in position notation. */
+    private static final int MAX_NUMERAL = 6;
     /** Pattern describing a valid square designator (cr). */
     static final Pattern ROW_COL = Pattern.compile("^[a-h][1-8]$");
 
@@ -49,9 +59,28 @@ class Board {
         copyFrom(board);
     }
 
+    /** A board in the position recorded in SNAPSHOT, with no moves
+     *  recorded. */
+    Board(BoardSnapshot snapshot) {
+        this();
+        setPieces(snapshot.occupied(BP), snapshot.occupied(WP));
+        _turn = snapshot.turn();
+        _movesBefore = snapshot.movesMade();
+        _moveLimit = 2 * snapshot.moveLimit();
+    }
+
+    /** Return a new board in the position POSN, in the notation of
+     *  setPosition. */
+    static Board fromPosition(CharSequence posn) {
+        Board board = new Board();
+        board.setPosition(posn);
+        return board;
+    }
+
     /** Set my state to CONTENTS with SIDE to move. */
     void initialize(Piece[][] contents, Piece side) {
-        _moves.clear();
+        _numMoves = 0;
+        _movesBefore = 0;
         for (int r = 0; r < BOARD_SIZE; r += 1) {
             for (int c = 0; c < BOARD_SIZE; c += 1) {
                 Piece curr = contents[r][c];
@@ -60,9 +89,7 @@ class Board {
         }
         _turn = side;
         _moveLimit = DEFAULT_MOVE_LIMIT;
-        _blackRegionSizes.clear();
-        _whiteRegionSizes.clear();
-        _moves.clear();
+        _regionsKnown = 0;
         _winner = null;
         _winnerKnown = false;
     }
@@ -78,18 +105,38 @@ class Board {
         if (board == this) {
             return;
         }
-        _subsetsInitialized = board._subsetsInitialized;
-        _blackRegionSizes.clear();
-        _whiteRegionSizes.clear();
-        _whiteRegionSizes.addAll(board.getRegionSizes(WP));
-        _blackRegionSizes.addAll(board.getRegionSizes(BP));
+        int n = board._numMoves;
+        if (_moves.length < n + 1) {
+            reserve(board._moves.length);
+        }
         arraycopy(board._board, 0, _board, 0, _board.length);
-        _moves.clear();
-        _moves.addAll(board._moves);
+        arraycopy(board._counts, 0, _counts, 0, _counts.length);
+        arraycopy(board._lineCounts, 0, _lineCounts, 0, NUM_LINES);
+        arraycopy(board._lineIndex, 0, _lineIndex, 0, NUM_LINES);
+        arraycopy(board._patchIndex, 0, _patchIndex, 0, NUM_SQUARES);
+        arraycopy(board._moves, 0, _moves, 0, n);
+        arraycopy(board._undoHash, 0, _undoHash, 0, n);
+        arraycopy(board._undoState, 0, _undoState, 0, n);
+        arraycopy(board._undoRegions, 0, _undoRegions, 0, n);
+        arraycopy(board._occupied, 0, _occupied, 0, _occupied.length);
+        arraycopy(board._regionSummary, 0, _regionSummary, 0,
+                  _regionSummary.length);
+        _hash = board._hash;
+        _numMoves = n;
         _turn = board._turn;
-        _winner = board.winner();
+        _regionsKnown = board._regionsKnown;
+        _winnerKnown = board._winnerKnown;
+        _winner = board._winner;
         _moveLimit = board._moveLimit;
-        computeRegions();
+        _movesBefore = board._movesBefore;
+    }
+
+    /** Make room for records of at least PLIES moves. */
+    private void reserve(int plies) {
+        _moves = Arrays.copyOf(_moves, plies);
+        _undoHash = Arrays.copyOf(_undoHash, plies);
+        _undoState = Arrays.copyOf(_undoState, plies);
+        _undoRegions = Arrays.copyOf(_undoRegions, plies);
     }
 
     /** Return the contents of the square at SQ. */
@@ -101,10 +148,28 @@ class Board {
      *  to NEXT, if NEXT is not null. */
     void set(Square sq, Piece v, Piece next) {
         int index = sq.index();
+        Piece old = _board[index];
+        _hash ^= zobrist(old, index) ^ zobrist(v, index);
+        addToPatterns(index, DIGIT[v.ordinal()]
+                      - (old == null ? 0 : DIGIT[old.ordinal()]));
+        if (old != null) {
+            _counts[old.ordinal()] -= 1;
+            if (old != EMP) {
+                addToLines(index, -1);
+                _occupied[old.ordinal()] &= ~bit(index);
+            }
+        }
+        _counts[v.ordinal()] += 1;
+        if (v != EMP) {
+            addToLines(index, 1);
+            _occupied[v.ordinal()] |= bit(index);
+        }
         _board[index] = v;
         if (next != null) {
             _turn = next;
         }
+        _regionsKnown = 0;
+        _winnerKnown = false;
     }
 
     /** Set the square at SQ to V, without modifying the side that
@@ -113,6 +178,146 @@ class Board {
         set(sq, v, null);
     }
 
+    /** Set my state to the position POSN, which is in a one-line
+     *  notation modeled on chess's FEN: the ranks from 8 down to 1,
+     *  separated by '/', each listing its squares from column a as b
+     *  (black), w (white), or a digit counting consecutive empty
+     *  squares; then, after a space, the side to move (b or w); and
+     *  optionally the number of moves made so far and the limit on the
+     *  moves of each side (as for setMoveLimit), which default to 0 and
+     *  the default limit.  For example, the initial position is
+     *      1bbbbbb1/w6w/w6w/w6w/w6w/w6w/w6w/1bbbbbb1 b 0 30
+     *  Moves made before POSN cannot be retracted.  The text is scanned
+     *  once, with no allocation unless it is invalid, in which case
+     *  IllegalArgumentException is thrown and I am unchanged. */
+    void setPosition(CharSequence posn) {
+        int n = posn.length();
+        int i = skipSpaces(posn, 0);
+        long black = 0, white = 0;
+        int r = BOARD_SIZE - 1, c = 0;
+        for (; i < n && posn.charAt(i) != ' '; i += 1) {
+            char ch = posn.charAt(i);
+            if (ch == '/' && c == BOARD_SIZE && r > 0) {
+                r -= 1;
+                c = 0;
+            } else if (ch >= '1' && ch <= '8' && c + ch - '0' <= BOARD_SIZE) {
+                c += ch - '0';
+            } else if ((ch == 'b' || ch == 'w') && c < BOARD_SIZE) {
+                if (ch == 'b') {
+                    black |= bit(c + BOARD_SIZE * r);
+                } else {
+                    white |= bit(c + BOARD_SIZE * r);
+                }
+                c += 1;
+            } else {
+                throw badPosition(posn);
+            }
+        }
+        i = skipSpaces(posn, i);
+        if (r != 0 || c != BOARD_SIZE || i >= n
+            || posn.charAt(i) != 'b' && posn.charAt(i) != 'w'
+            || i + 1 < n && posn.charAt(i + 1) != ' ') {
+            throw badPosition(posn);
+        }
+        Piece side = posn.charAt(i) == 'b' ? BP : WP;
+        int made = 0, limit = DEFAULT_MOVE_LIMIT / 2;
+        i = skipSpaces(posn, i + 1);
+        if (i < n) {
+            int end = skipDigits(posn, i);
+            made = number(posn, i, end);
+            i = skipSpaces(posn, end);
+            if (i < n) {
+                end = skipDigits(posn, i);
+                limit = number(posn, i, end);
+                i = skipSpaces(posn, end);
+            }
+        }
+        if (i < n || made < 0 || limit < 0 || 2 * limit <= made) {
+            throw badPosition(posn);
+        }
+        _numMoves = 0;
+        setPieces(black, white);
+        _turn = side;
+        _movesBefore = made;
+        _moveLimit = 2 * limit;
+        _regionsKnown = 0;
+        _winner = null;
+        _winnerKnown = false;
+    }
+
+    /** Set the contents of all squares at once, with black occupying
+     *  BLACK and white WHITE (disjoint occupancy masks), computing the
+     *  hash and line and pattern indices from the pieces alone. */
+    private void setPieces(long black, long white) {
+        Arrays.fill(_board, EMP);
+        Arrays.fill(_lineCounts, 0);
+        Arrays.fill(_lineIndex, 0);
+        Arrays.fill(_patchIndex, 0);
+        _hash = 0;
+        _occupied[BP.ordinal()] = black;
+        _occupied[WP.ordinal()] = white;
+        _counts[BP.ordinal()] = Long.bitCount(black);
+        _counts[WP.ordinal()] = Long.bitCount(white);
+        _counts[EMP.ordinal()] = NUM_SQUARES - Long.bitCount(black | white);
+        for (long pieces = black | white; pieces != 0;
+             pieces &= pieces - 1) {
+            int s = Long.numberOfTrailingZeros(pieces);
+            Piece p = (black & bit(s)) != 0 ? BP : WP;
+            _board[s] = p;
+            _hash ^= zobrist(p, s);
+            addToLines(s, 1);
+            addToPatterns(s, DIGIT[p.ordinal()]);
+        }
+    }
+
+    /** Return my position in the notation of setPosition. */
+    String position() {
+        return snapshot().toString();
+    }
+
+    /** Return an immutable record of my current position. */
+    BoardSnapshot snapshot() {
+        return new BoardSnapshot(_occupied[BP.ordinal()],
+                                 _occupied[WP.ordinal()], _turn,
+                                 movesMade(), moveLimit());
+    }
+
+    /** Return the index of the first non-blank character of POSN at or
+     *  after I, or its length. */
+    private static int skipSpaces(CharSequence posn, int i) {
+        while (i < posn.length() && posn.charAt(i) == ' ') {
+            i += 1;
+        }
+        return i;
+    }
+
+    /** Return the index of the first non-digit character of POSN at or
+     *  after I, or its length. */
+    private static int skipDigits(CharSequence posn, int i) {
+        while (i < posn.length() && Character.isDigit(posn.charAt(i))) {
+            i += 1;
+        }
+        return i;
+    }
+
+    /** Return the value of the numeral POSN[START .. END-1], or -1 if it
+     *  is empty or too long. */
+    private static int number(CharSequence posn, int start, int end) {
+        if (start == end || end - start > MAX_NUMERAL) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = start; i < end; i += 1) {
+            value = 10 * value + posn.charAt(i) - '0';
+        }
+        return value;
+    }
+
+    /** Return the exception reporting that POSN is not a position. */
+    private static IllegalArgumentException badPosition(CharSequence posn) {
+        return new IllegalArgumentException("bad position: " + posn);
+    }
+
     /** Set limit on number of moves by each side that results in a tie to
      *  LIMIT, where 2 * LIMIT > movesMade(). */
     void setMoveLimit(int limit) {
@@ -128,38 +333,157 @@ class Board {
      *  the capturing move. */
     void makeMove(Move move) {
         assert isLegal(move);
-        Square from = move.getFrom(),
-                to = move.getTo();
-        if ((get(from) != get(to)) && (get(to) != EMP)) {
-            move = Move.mv(from, to, true);
-        }
-        set(to, get(from));
-        set(from, EMP);
-        _turn = get(to).opposite();
-        _moves.add(move);
-        _subsetsInitialized = false;
+        makeMove(move.code());
+    }
+
+    /** Assuming that it denotes a legal move, make the move whose
+     *  Move.code() is CODE.  The capture flag in CODE is ignored: the
+     *  move saved for retraction has it set iff the move captures. */
+    void makeMove(int code) {
+        int ply = _numMoves;
+        if (ply + 1 >= _moves.length) {
+            reserve(2 * _moves.length);
+        }
+        _undoHash[ply] = _hash;
+        _undoState[ply] = derivedState();
+        _undoRegions[ply] = _regionSummary[BP.ordinal()]
+            | (_regionSummary[WP.ordinal()] << SUMMARY_BITS);
+
+        int from = (code >> Move.FROM_SHIFT) & Move.SQUARE_MASK,
+            to = code & Move.SQUARE_MASK;
+        Piece mover = _board[from], target = _board[to];
+        if (target != EMP) {
+            code |= Move.CAPTURE_FLAG;
+        } else {
+            code &= ~Move.CAPTURE_FLAG;
+        }
+        _hash ^= zobrist(mover, from) ^ zobrist(mover, to)
+            ^ zobrist(target, to);
+        _counts[target.ordinal()] -= 1;
+        _counts[EMP.ordinal()] += 1;
+        addToLines(from, -1);
+        addToPatterns(from, -DIGIT[mover.ordinal()]);
+        addToPatterns(to, DIGIT[mover.ordinal()] - DIGIT[target.ordinal()]);
+        _occupied[mover.ordinal()] ^= bit(from) | bit(to);
+        if (target == EMP) {
+            addToLines(to, 1);
+            _regionsKnown &= ~(1 << mover.ordinal());
+        } else {
+            _occupied[target.ordinal()] ^= bit(to);
+            _regionsKnown = 0;
+        }
+        _board[to] = mover;
+        _board[from] = EMP;
+        _turn = mover.opposite();
+        _moves[ply] = code;
+        _numMoves = ply + 1;
         _winnerKnown = false;
-        computeRegions();
     }
 
     /** Retract (unmake) one move, returning to the state immediately before
-       that move.  Requires that movesMade () > 0. */
+       that move.  Requires that movesRecorded() > 0.  Everything that
+       makeMove changed is restored from its undo record, so this takes
+       constant time. */
     void retract() {
-        assert movesMade() > 0;
-        Move last = _moves.get(_moves.size() - 1);
-        _moves.remove(_moves.size() - 1);
-        Square from = last.getFrom();
-        Square to = last.getTo();
-        set(from, get(to));
-        if (!last.isCapture()) {
-            set(to, EMP);
+        assert _numMoves > 0;
+        int ply = _numMoves - 1;
+        int code = _moves[ply];
+        int from = (code >> Move.FROM_SHIFT) & Move.SQUARE_MASK,
+            to = code & Move.SQUARE_MASK;
+        Piece mover = _board[to],
+            captured = (code & Move.CAPTURE_FLAG) != 0 ? mover.opposite()
+                : EMP;
+        _board[from] = mover;
+        _board[to] = captured;
+        _counts[captured.ordinal()] += 1;
+        _counts[EMP.ordinal()] -= 1;
+        addToLines(from, 1);
+        addToPatterns(from, DIGIT[mover.ordinal()]);
+        addToPatterns(to, DIGIT[captured.ordinal()] - DIGIT[mover.ordinal()]);
+        _occupied[mover.ordinal()] ^= bit(from) | bit(to);
+        if (captured == EMP) {
+            addToLines(to, -1);
         } else {
-            set(to, get(to).opposite());
+            _occupied[captured.ordinal()] ^= bit(to);
         }
-        _turn = _turn.opposite();
-        _subsetsInitialized = false;
-        _winnerKnown = false;
-        computeRegions();
+        _turn = mover;
+        _hash = _undoHash[ply];
+        int regions = _undoRegions[ply];
+        _regionSummary[BP.ordinal()] = regions & SUMMARY_MASK;
+        _regionSummary[WP.ordinal()] = regions >>> SUMMARY_BITS;
+        restoreDerivedState(_undoState[ply]);
+        _numMoves = ply;
+    }
+
+    /** Add DELTA to the piece counts of the four lines through square
+     *  index SQ. */
+    private void addToLines(int sq, int delta) {
+        int[] lines = LINE[sq];
+        _lineCounts[lines[0]] += delta;
+        _lineCounts[lines[1]] += delta;
+        _lineCounts[lines[2]] += delta;
+        _lineCounts[lines[3]] += delta;
+    }
+
+    /** Add DELTA to the digit of square index SQ in the pattern indices
+     *  of the lines and patches that include it. */
+    private void addToPatterns(int sq, int delta) {
+        int[] lines = LINE[sq], lineWeights = LINE_WEIGHT[sq];
+        for (int a = 0; a < lines.length; a += 1) {
+            _lineIndex[lines[a]] += delta * lineWeights[a];
+        }
+        int[] centers = PATCH_CENTERS[sq], patchWeights = PATCH_WEIGHTS[sq];
+        for (int j = 0; j < centers.length; j += 1) {
+            _patchIndex[centers[j]] += delta * patchWeights[j];
+        }
+    }
+
+    /** Return the pattern index of line number L (see PatternEvaluator). */
+    int lineIndex(int l) {
+        return _lineIndex[l];
+    }
+
+    /** Return the pattern index of the 3x3 patch around square index S
+     *  (see PatternEvaluator). */
+    int patchIndex(int s) {
+        return _patchIndex[s];
+    }
+
+    /** Return an encoding of which of my derived values (the region
+     *  summaries of each side and the winner) are known, and of the
+     *  winner, for saving in an undo record: the low two bits are
+     *  _regionsKnown, and the rest is the winner code. */
+    private byte derivedState() {
+        int winner = 0;
+        if (_winnerKnown) {
+            winner = _winner == null ? WINNER_NONE
+                : WINNER_PIECE + _winner.ordinal();
+        }
+        return (byte) ((winner << 2) | _regionsKnown);
+    }
+
+    /** Restore the derived values encoded in STATE by derivedState(). */
+    private void restoreDerivedState(byte state) {
+        _regionsKnown = state & 3;
+        int winner = state >> 2;
+        _winnerKnown = winner != 0;
+        _winner = winner < WINNER_PIECE ? null
+            : PIECES[winner - WINNER_PIECE];
+    }
+
+    /** Return a 64-bit Zobrist hash of the current position, including
+     *  the side to move.  Equal positions have equal keys; keys are
+     *  stable from run to run, so they may be stored in files. */
+    long hashKey() {
+        return _turn == WP ? _hash ^ ZOBRIST_WHITE_TO_MOVE : _hash;
+    }
+
+    /** Return the Zobrist key contribution of piece P at square INDEX. */
+    private static long zobrist(Piece p, int index) {
+        if (p == null || p == EMP) {
+            return 0;
+        }
+        return ZOBRIST[p.ordinal()][index];
     }
 
     /** Return the Piece representing who is
@@ -171,63 +495,48 @@ class Board {
     /** Return true iff FROM - TO is a legal move for the player currently on
        move. */
     boolean isLegal(Square from, Square to) {
-        Move move = Move.mv(from, to);
-        if (from != null && to != null && !get(from).equals(EMP)) {
-            Piece start = get(from);
-            if (from.equals(to)) {
-                return false;
-            }
-            if (move.length() != countAlong(move)) {
-                return false;
-            }
-            if (start != _turn) {
-                return false;
-            }
-            if (turn() != get(from)) {
-                return false;
-            }
-            if (get(from) == get(to)) {
-                return false;
-            }
-            if (blocked(from, to)) {
-                return false;
-            }
-        } else if (move == null) {
+        if (from == null || to == null) {
             return false;
         }
-        return true;
+        return isLegal(from.index(), to.index());
     }
 
-    /** Return pieces along the direction of the move.
-     * @return int
-     * @param move */
-    private int countAlong(Move move) {
-        Square from = move.getFrom();
-        Square to = move.getTo();
-        Square dummy = from;
-        int direction = from.direction(to);
-        int steps = 1;
-        int numPieces = 1;
-        while (dummy.moveDest(direction, steps) != null) {
-            Square curr = dummy.moveDest(direction, steps);
-            Piece curr1 = get(curr);
-            int index = curr.index();
-            if (get(curr) != EMP) {
-                numPieces++;
-            }
-            steps++;
-        }
-        int direction2 = to.direction(from);
-        steps = 1;
-        Square hello = dummy.moveDest(direction2, steps);
-        while (dummy.moveDest(direction2, steps) != null) {
-            Square curr = dummy.moveDest(direction2, steps);
-            if (get(curr) != EMP) {
-                numPieces++;
+    /** Return true iff the move whose Move.code() is CODE is legal for
+     *  the player currently on move.  The capture flag is ignored. */
+    boolean isLegal(int code) {
+        return isLegal((code >> Move.FROM_SHIFT) & Move.SQUARE_MASK,
+                       code & Move.SQUARE_MASK);
+    }
+
+    /** Return true iff the move whose Move.code() is CODE would capture
+     *  a piece. */
+    boolean isCapture(int code) {
+        return _board[code & Move.SQUARE_MASK] != EMP;
+    }
+
+    /** Return true iff a move from square index F to square index T is
+     *  legal for the player currently on move. */
+    private boolean isLegal(int f, int t) {
+        int dir = direction(f, t);
+        if (dir < 0 || _board[f] != _turn || _board[t] == _turn) {
+            return false;
+        }
+        int[] ray = RAYS[f][dir];
+        int steps = _lineCounts[line(f, dir)];
+        return steps <= ray.length && ray[steps - 1] == t
+            && pathClear(ray, steps);
+    }
+
+    /** Return true iff none of the first STEPS-1 squares of RAY holds
+     *  a piece of the side not on move. */
+    private boolean pathClear(int[] ray, int steps) {
+        Piece opponent = _turn.opposite();
+        for (int k = 0; k < steps - 1; k += 1) {
+            if (_board[ray[k]] == opponent) {
+                return false;
             }
-            steps++;
         }
-        return numPieces;
+        return true;
     }
 
     /** Return true iff MOVE is legal for the player currently on move.
@@ -243,22 +552,58 @@ class Board {
     /** This is based on the current player.
      * @return List legalmoves. */
     List<Move> legalMoves() {
-        List<Move> legal = new ArrayList<Move>();
-        for (int c = 0; c < BOARD_SIZE; c += 1) {
-            for (int r = 0; r < BOARD_SIZE; r += 1) {
-                Square from = sq(c, r);
-                for (int a = 0; a < BOARD_SIZE; a += 1) {
-                    for (int b = 0; b < BOARD_SIZE; b += 1) {
-                        Square to = sq(a, b);
-                        Piece curr = get(from);
-                        if (isLegal(Move.mv(from, to)) && curr == _turn) {
-                            legal.add(Move.mv(from, to));
-                        }
-                    }
+        int[] codes = new int[MAX_MOVES];
+        int n = legalMoves(codes);
+        List<Move> legal = new ArrayList<Move>(n);
+        for (int i = 0; i < n; i += 1) {
+            legal.add(Move.mv(codes[i] & ~Move.CAPTURE_FLAG));
+        }
+        return legal;
+    }
+
+    /** Store the Move.code()s of all legal moves from this position in
+     *  MOVES[0 .. N-1], where N is the returned count.  Codes of moves
+     *  that capture have the capture flag set.  MOVES must have room for
+     *  MAX_MOVES codes. */
+    int legalMoves(int[] moves) {
+        return legalMoves(moves, ALL_MOVES);
+    }
+
+    /** As for legalMoves(MOVES), but store only the moves of the KINDS
+     *  given (CAPTURES, QUIET_MOVES, or ALL_MOVES). */
+    int legalMoves(int[] moves, int kinds) {
+        int n = 0;
+        for (long rest = _occupied[_turn.ordinal()]; rest != 0;
+             rest &= rest - 1) {
+            int from = Long.numberOfTrailingZeros(rest);
+            for (int dir = 0; dir < 8; dir += 1) {
+                int[] ray = RAYS[from][dir];
+                int steps = _lineCounts[line(from, dir)];
+                if (steps > ray.length) {
+                    continue;
+                }
+                int to = ray[steps - 1];
+                Piece target = _board[to];
+                int kind = target == EMP ? QUIET_MOVES : CAPTURES;
+                if (target != _turn && (kinds & kind) != 0
+                    && pathClear(ray, steps)) {
+                    moves[n++] = (from << Move.FROM_SHIFT) | to
+                        | (kind == CAPTURES ? Move.CAPTURE_FLAG : 0);
                 }
             }
         }
-        return legal;
+        return n;
+    }
+
+    /** Return the number of moves (by either side) that may still be
+     *  made before the game ends in a tie. */
+    int movesLeft() {
+        return _moveLimit - movesMade();
+    }
+
+    /** Return the limit on the number of moves by each side. */
+    int moveLimit() {
+        return _moveLimit / 2;
     }
 
     /** Return true iff the game is over (either player has all his
@@ -272,13 +617,14 @@ class Board {
 
     /** Return true iff SIDE's pieces are continguous. */
     boolean piecesContiguous(Piece side) {
-        return getRegionSizes(side).size() == 1;
+        return numRegions(side) == 1;
     }
 
     /** Return the winning side, if any.  If the game is not over, result is
      *  null.  If the game has ended in a tie, returns EMP. m */
     Piece winner() {
         if (!_winnerKnown) {
+            _winner = null;
             boolean wpCon = piecesContiguous(WP);
             boolean bpCon = piecesContiguous(BP);
             if ((bpCon) && (wpCon)) {
@@ -296,7 +642,7 @@ class Board {
             } else if (bpCon) {
                 _winnerKnown = true;
                 _winner = BP;
-            } else if (_moves.size() >= _moveLimit) {
+            } else if (movesMade() >= _moveLimit) {
                 _winnerKnown = true;
                 _winner = EMP;
             }
@@ -309,7 +655,74 @@ class Board {
      *  retracted).  Each valid call to makeMove with a normal move increases
      *  this number by 1. */
     int movesMade() {
-        return _moves.size();
+        return _movesBefore + _numMoves;
+    }
+
+    /** Return the number of moves that may be retracted: those made since
+     *  the position was last cleared or set by setPosition. */
+    int movesRecorded() {
+        return _numMoves;
+    }
+
+    /** Return the number of times the current position, with the same
+     *  side to move, occurred earlier among the recorded moves.  The
+     *  hashes saved for retraction serve as the history: the position
+     *  before move K recurs if its hash equals the current one and an
+     *  even number of moves separate them.  A capture cannot be undone,
+     *  so the scan stops at the most recent one, and takes time
+     *  proportional to the number of moves since. */
+    int repetitions() {
+        int count = 0;
+        for (int k = _numMoves - 2; k >= 0; k -= 2) {
+            if ((_moves[k + 1] & Move.CAPTURE_FLAG) != 0
+                || (_moves[k] & Move.CAPTURE_FLAG) != 0) {
+                break;
+            }
+            if (_undoHash[k] == _hash) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Return true iff the current position, with the same side to
+     *  move, occurred earlier among the recorded moves.  Stops at the
+     *  first repetition found, so is at least as fast as
+     *  repetitions(). */
+    boolean isRepetition() {
+        for (int k = _numMoves - 2; k >= 0; k -= 2) {
+            if ((_moves[k + 1] & Move.CAPTURE_FLAG) != 0
+                || (_moves[k] & Move.CAPTURE_FLAG) != 0) {
+                return false;
+            }
+            if (_undoHash[k] == _hash) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return true iff isRepetition() would be true after the move
+     *  whose Move.code() is CODE, which must be legal.  The move is not
+     *  made; a capture never repeats. */
+    boolean repeatsAfter(int code) {
+        int from = (code >> Move.FROM_SHIFT) & Move.SQUARE_MASK,
+            to = code & Move.SQUARE_MASK;
+        if (_board[to] != EMP) {
+            return false;
+        }
+        Piece mover = _board[from];
+        long hash = _hash ^ zobrist(mover, from) ^ zobrist(mover, to);
+        for (int k = _numMoves - 1; k >= 0; k -= 2) {
+            if (k + 1 < _numMoves && (_moves[k + 1] & Move.CAPTURE_FLAG) != 0
+                || (_moves[k] & Move.CAPTURE_FLAG) != 0) {
+                return false;
+            }
+            if (_undoHash[k] == hash) {
+                return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -341,107 +754,52 @@ class Board {
 
     /** Return the very last move. delete?*/
     Move lastMove() {
-        return _moves.get(_moves.size() - 1);
-    }
-    /** Return true if a move from FROM to TO is blocked by an opposing
-     *  piece or by a friendly piece on the target square. */
-    private boolean blocked(Square from, Square to) {
-        Square dummy = from;
-        Move m = Move.mv(from, to);
-        int dir = from.direction(to);
-        int steps = 1;
-        Square curr = dummy.moveDest(dir, steps);
-        Piece tur = _turn;
-        while (dummy.moveDest(dir, steps) != null && steps <= countAlong(m)) {
-            curr = dummy.moveDest(dir, steps);
-            if (curr.equals(to)) {
-                break;
-            }
-            if (get(curr).equals(_turn.opposite())) {
-                return true;
-            }
-            steps++;
-        }
-        if (get(to).equals(_turn)) {
-            return true;
+        return Move.mv(_moves[_numMoves - 1]);
+    }
+    /** Return the region summary (see RegionCache) of side S. */
+    private int regionSummary(Piece s) {
+        int k = s.ordinal();
+        if ((_regionsKnown & (1 << k)) == 0) {
+            _regionSummary[k] = RegionCache.summary(_occupied[k]);
+            _regionsKnown |= 1 << k;
         }
-        return false;
+        return _regionSummary[k];
     }
 
-    /** Return the size of the as-yet unvisited cluster of squares
-     *  containing P at and adjacent to SQ.  VISITED indicates squares that
-     *  have already been processed or are in different clusters.  Update
-     *  VISITED to reflect squares counted. m */
-    private int numContig(Square sq, boolean[][] visited, Piece p) {
-        int number = 1;
-        Square[] nearby = sq.adjacent();
-        Piece p1 = get(sq);
-        if (p1.equals(p)) {
-            visited[sq.row()][sq.col()] = true;
-            for (int i = 0; i < nearby.length; i++) {
-                Square currAdj = nearby[i];
-                int row = currAdj.row();
-                int col = currAdj.col();
-                if (get(currAdj).equals(p) && !visited[row][col]) {
-                    number += numContig(currAdj, visited, p);
-                }
-            }
-        }
-        return number;
+    /** Return the occupancy mask of side S: bit Geometry.bit(K) is set
+     *  iff S has a piece on the square with index K. */
+    long occupied(Piece s) {
+        return _occupied[s.ordinal()];
     }
-    /** Set the values of _whiteRegionSizes and _blackRegionSizes. */
-    private void computeRegions() {
-        if (_subsetsInitialized) {
-            return;
-        }
-        _whiteRegionSizes.clear();
-        _blackRegionSizes.clear();
 
-        boolean[][] visited = new boolean[BOARD_SIZE][BOARD_SIZE];
-        for (int r = 0; r < BOARD_SIZE; r++) {
-            for (int c = 0; c < BOARD_SIZE; c++) {
-                Square sq = sq(c, r);
-                if ((visited[r][c]) || (get(sq) == EMP)) {
-                    continue;
-                }
-                int size = numContig(sq, visited, get(sq));
-                if (size > 0) {
-                    if (get(sq) == WP) {
-                        _whiteRegionSizes.add(size);
-                    } else {
-                        _blackRegionSizes.add(size);
-                    }
-                }
-            }
-        }
+    /** Return the number of regions of side S. */
+    int numRegions(Piece s) {
+        return RegionCache.count(regionSummary(s));
+    }
 
-        Collections.sort(_whiteRegionSizes, Collections.reverseOrder());
-        Collections.sort(_blackRegionSizes, Collections.reverseOrder());
-        _subsetsInitialized = true;
+    /** Return the size of the largest region of side S, or 0 if S has
+     *  no pieces. */
+    int largestRegion(Piece s) {
+        return RegionCache.largest(regionSummary(s));
     }
+
     /** Return the sizes of all the regions in the current union-find
-     *  structure for side S. */
+     *  structure for side S, largest first. */
     List<Integer> getRegionSizes(Piece s) {
-        computeRegions();
-        if (s == WP) {
-            return _whiteRegionSizes;
-        } else {
-            return _blackRegionSizes;
+        ArrayList<Integer> sizes = new ArrayList<>();
+        for (long rest = _occupied[s.ordinal()]; rest != 0; ) {
+            long region = RegionCache.nextRegion(rest);
+            sizes.add(Long.bitCount(region));
+            rest &= ~region;
         }
+        sizes.sort(Collections.reverseOrder());
+        return sizes;
     }
 
     /** Return the number of pieces a player has.
      * @return int @param side */
     public int getNum(Piece side) {
-        int num = 0;
-        for (int i = 0; i < BOARD_SIZE; i++) {
-            for (int j = 0; j < BOARD_SIZE; j++) {
-                if (get(sq(i, j)).equals(side)) {
-                    num++;
-                }
-            }
-        }
-        return num;
+        return _counts[side.ordinal()];
     }
 
     /** The standard initial configuration for Lines of Action (bottom row
@@ -457,11 +815,68 @@ class Board {
             { EMP, BP,  BP,  BP,  BP,  BP,  BP,  EMP }
     };
 
+    /** Random keys for each (piece, square) pair, indexed by
+     *  Piece.ordinal() and Square.index(). */
+    private static final long[][] ZOBRIST = new long[2][NUM_SQUARES];
+    /** Key XORed into hashKey() when white is to move. */
+    private static final long ZOBRIST_WHITE_TO_MOVE;
+
+    static {
+        Random keys = new Random(0x10AL);
+        for (long[] row : ZOBRIST) {
+            for (int i = 0; i < row.length; i += 1) {
+                row[i] = keys.nextLong();
+            }
+        }
+        ZOBRIST_WHITE_TO_MOVE = keys.nextLong();
+    }
+
+    /** Winner code in an undo state for a known winner of null (game
+     *  in progress).  Code 0 means the winner was not known. */
+    private static final int WINNER_NONE = 1;
+    /** Winner code in an undo state for a known winner P is
+     *  WINNER_PIECE + P.ordinal(). */
+    private static final int WINNER_PIECE = 2;
+    /** Pieces by ordinal. */
+    private static final Piece[] PIECES = Piece.values();
+    /** Number of bits in a region summary. */
+    private static final int SUMMARY_BITS = 16;
+    /** Mask selecting one region summary in an undo record. */
+    private static final int SUMMARY_MASK = (1 << SUMMARY_BITS) - 1;
+
     /** Current contents of the board.  Square S is at _board[S.index()]. */
     private final Piece[] _board = new Piece[BOARD_SIZE  * BOARD_SIZE];
 
-    /** List of all unretracted moves on this board, in order. */
-    private final ArrayList<Move> _moves = new ArrayList<>();
+    /** Number of squares holding each kind of piece, by ordinal. */
+    private final int[] _counts = new int[PIECES.length];
+    /** Number of pieces on each line, indexed by Geometry line number. */
+    private final int[] _lineCounts = new int[NUM_LINES];
+    /** Pattern index of each line, by line number. */
+    private final int[] _lineIndex = new int[NUM_LINES];
+    /** Pattern index of the 3x3 patch around each square, by square
+     *  index. */
+    private final int[] _patchIndex = new int[NUM_SQUARES];
+    /** Occupancy masks (see Geometry.bit) of each side, by ordinal. */
+    private final long[] _occupied = new long[2];
+
+    /** Zobrist hash of the pieces on _board (excluding side to move). */
+    private long _hash;
+
+    /** Move.code()s of all unretracted moves on this board, in order,
+     *  in _moves[0 .. _numMoves-1]. */
+    private int[] _moves = new int[2 * DEFAULT_MOVE_LIMIT];
+    /** Number of unretracted moves. */
+    private int _numMoves;
+    /** Number of moves made before the position set by setPosition. */
+    private int _movesBefore;
+    /** Undo records: _undoHash[k] and _undoState[k] are the values of
+     *  _hash and derivedState() before the move in _moves[k]. */
+    private long[] _undoHash = new long[_moves.length];
+    /** See _undoHash. */
+    private byte[] _undoState = new byte[_moves.length];
+    /** _undoRegions[k] holds the region summaries of black (low bits)
+     *  and white before the move in _moves[k]. */
+    private int[] _undoRegions = new int[_moves.length];
     /** Current side on move. */
     private Piece _turn;
     /** Limit on number of moves before tie is declared.  */
@@ -472,11 +887,9 @@ class Board {
      *  in progress).  Use only if _winnerKnown. */
     private Piece _winner;
 
-    /** True iff subsets computation is up-to-date. */
-    private boolean _subsetsInitialized;
-
-    /** List of the sizes of continguous clusters of pieces, by color. */
-    private final ArrayList<Integer>
-            _whiteRegionSizes = new ArrayList<>(),
-            _blackRegionSizes = new ArrayList<>();
+    /** Region summaries (see RegionCache) of each side, by ordinal. */
+    private final int[] _regionSummary = new int[2];
+    /** Bit 1 << P.ordinal() is set iff _regionSummary[P.ordinal()] is
+     *  up to date. */
+    private int _regionsKnown;
 }
@@ -0,0 +1,131 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import static loa.Piece.*;
+import static loa.Square.*;
+
+/** An immutable record of a position: the squares each side occupies,
+ *  the side to move, the number of moves made, and the move limit.
+ *  Unlike a Board, it holds neither history nor derived state, so that
+ *  Board.snapshot makes one in constant time, and, its fields being
+ *  final, it may be handed to other threads without locking.
+ *  @author Manaal
+ */
+final class BoardSnapshot {
+
+    /** The position in which black occupies BLACK and white WHITE
+     *  (disjoint occupancy masks, bit k standing for the square with
+     *  index k), with TURN to move, after MOVESMADE moves, and with a
+     *  limit of MOVELIMIT moves by each side. */
+    BoardSnapshot(long black, long white, Piece turn, int movesMade,
+                  int moveLimit) {
+        assert (black & white) == 0 && turn != EMP;
+        _black = black;
+        _white = white;
+        _turn = turn;
+        _movesMade = movesMade;
+        _moveLimit = moveLimit;
+    }
+
+    /** Return the occupancy mask of SIDE's pieces (the empty squares if
+     *  SIDE is EMP). */
+    long occupied(Piece side) {
+        switch (side) {
+        case BP:
+            return _black;
+        case WP:
+            return _white;
+        default:
+            return ~(_black | _white);
+        }
+    }
+
+    /** Return the contents of the square at SQ. */
+    Piece get(Square sq) {
+        long mask = 1L << sq.index();
+        return (_black & mask) != 0 ? BP : (_white & mask) != 0 ? WP : EMP;
+    }
+
+    /** Return the side to move. */
+    Piece turn() {
+        return _turn;
+    }
+
+    /** Return the number of moves made. */
+    int movesMade() {
+        return _movesMade;
+    }
+
+    /** Return the limit on the number of moves by each side. */
+    int moveLimit() {
+        return _moveLimit;
+    }
+
+    /** Return the number of moves (by either side) that may still be
+     *  made before the game ends in a tie. */
+    int movesLeft() {
+        return 2 * _moveLimit - _movesMade;
+    }
+
+    /** Return my position in the notation of Board.setPosition. */
+    @Override
+    public String toString() {
+        StringBuilder posn = new StringBuilder();
+        for (int r = BOARD_SIZE - 1; r >= 0; r -= 1) {
+            int empty = 0;
+            for (int c = 0; c < BOARD_SIZE; c += 1) {
+                Piece p = get(sq(c, r));
+                if (p == EMP) {
+                    empty += 1;
+                } else {
+                    if (empty > 0) {
+                        posn.append(empty);
+                    }
+                    empty = 0;
+                    posn.append(p.abbrev());
+                }
+            }
+            if (empty > 0) {
+                posn.append(empty);
+            }
+            if (r > 0) {
+                posn.append('/');
+            }
+        }
+        return posn.append(' ').append(_turn.abbrev()).append(' ')
+            .append(_movesMade).append(' ').append(_moveLimit).toString();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BoardSnapshot)) {
+            return false;
+        }
+        BoardSnapshot other = (BoardSnapshot) obj;
+        return _black == other._black && _white == other._white
+            && _turn == other._turn && _movesMade == other._movesMade
+            && _moveLimit == other._moveLimit;
+    }
+
+    @Override
+    public int hashCode() {
+        long h = _black * HASH_MULTIPLIER + _white;
+        h = h * HASH_MULTIPLIER + _turn.ordinal();
+        h = h * HASH_MULTIPLIER + _movesMade;
+        h = h * HASH_MULTIPLIER + _moveLimit;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /** Multiplier used in combining fields in hashCode. */
+    private static final long HASH_MULTIPLIER = 31;
+
+    /** Occupancy masks of black and white. */
+    private final long _black, _white;
+    /** Side to move. */
+    private final Piece _turn;
+    /** Number of moves made. */
+    private final int _movesMade;
+    /** Limit on the number of moves by each side. */
+    private final int _moveLimit;
+}
@@ -4,7 +4,21 @@ package loa;
 
 import org.junit.Test;
 
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.*;
 
@@ -193,4 +207,760 @@ public class BoardTest {
         assertEquals(5, (int) b3.getRegionSizes(BP).get(0));
         assertEquals(11, (int) b3.getRegionSizes(WP).get(0));
     }
+
+    @Test
+    public void testHashKey() {
+        Board b0 = new Board(BOARD1, BP);
+        Board b1 = new Board(BOARD1, BP);
+        long key = b1.hashKey();
+        assertEquals(key, b0.hashKey());
+        assertNotEquals(key, new Board(BOARD1, WP).hashKey());
+        b1.makeMove(mv("f3-d5"));
+        assertNotEquals(key, b1.hashKey());
+        b1.retract();
+        assertEquals(key, b1.hashKey());
+        assertEquals(key, new Board(b1).hashKey());
+    }
+
+    @Test
+    public void testWinnerAfterRetract() {
+        Board b = new Board(BOARD1, BP);
+        b.makeMove(mv("b1-b3"));
+        b.retract();
+        b.makeMove(mv("b1-b3"));
+        assertNull(b.winner());
+        Piece[][] pieces = {
+            { EMP, EMP, EMP, EMP, EMP,  BP, EMP, EMP },
+            { EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP },
+            { EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP },
+            { EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP },
+            { EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP },
+            { EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP },
+            { EMP, EMP, EMP, EMP, EMP, EMP, EMP, EMP },
+            { EMP,  BP, EMP, EMP,  WP, EMP, EMP,  WP },
+        };
+        Board b2 = new Board(pieces, WP);
+        b2.makeMove(mv("e8-b8"));
+        assertEquals(BP, b2.winner());
+        b2.retract();
+        b2.makeMove(mv("e8-d7"));
+        assertNull(b2.winner());
+    }
+
+    @Test
+    public void testRetractRestoresState() {
+        Board b = new Board(BOARD1, BP);
+        long key = b.hashKey();
+        List<Integer> white = b.getRegionSizes(WP),
+            black = b.getRegionSizes(BP);
+        b.makeMove(mv("f3-d5"));
+        assertEquals(11, b.getNum(WP));
+        b.makeMove(b.legalMoves().get(0));
+        b.retract();
+        b.retract();
+        assertEquals(key, b.hashKey());
+        assertEquals(white, b.getRegionSizes(WP));
+        assertEquals(black, b.getRegionSizes(BP));
+        assertEquals(12, b.getNum(WP));
+        assertEquals(0, b.movesMade());
+        assertNull(b.winner());
+    }
+
+    @Test
+    public void testRegionSummaries() {
+        Board b = new Board(BOARD1, BP);
+        assertEquals(5, b.numRegions(WP));
+        assertEquals(7, b.numRegions(BP));
+        assertEquals(5, b.largestRegion(WP));
+        assertEquals(3, b.largestRegion(BP));
+        b.makeMove(mv("f3-d5"));
+        assertEquals(b.getRegionSizes(WP).size(), b.numRegions(WP));
+        assertEquals((int) b.getRegionSizes(BP).get(0), b.largestRegion(BP));
+        b.retract();
+        assertEquals(7, b.numRegions(BP));
+        assertEquals(5, b.largestRegion(WP));
+    }
+
+    @Test
+    public void testLeafEvaluator() {
+        Board b = new Board(BOARD1, BP);
+        LeafEvaluator scalar = new LeafEvaluator(),
+            best = LeafEvaluator.create();
+        for (LeafEvaluator eval : new LeafEvaluator[] { scalar, best }) {
+            eval.add(b.occupied(BP), b.occupied(WP));
+            eval.add(new Board().occupied(BP), new Board().occupied(WP));
+            for (Move move : b.legalMoves()) {
+                b.makeMove(move);
+                eval.add(b.occupied(BP), b.occupied(WP));
+                b.retract();
+            }
+            eval.evaluate();
+        }
+        assertEquals(7, scalar._euler[LeafEvaluator.BLACK][0]);
+        assertEquals(5, scalar._euler[LeafEvaluator.WHITE][0]);
+        assertEquals(0, scalar.score(1));
+        for (int i = 0; i < scalar.size(); i += 1) {
+            assertEquals(scalar.score(i), best.score(i));
+        }
+    }
+
+    @Test
+    public void testPatternIndices() {
+        Board b = new Board(BOARD1, BP);
+        int[] lines = new int[Geometry.NUM_LINES];
+        for (int l = 0; l < lines.length; l += 1) {
+            lines[l] = b.lineIndex(l);
+        }
+        int b2 = sq("b2").index();
+        assertEquals(PatternEvaluator.DIGIT[BP.ordinal()],
+                     b.patchIndex(b2) / 3 % 3);
+        b.makeMove(mv("f3-d5"));
+        assertEquals(PatternEvaluator.DIGIT[EMP.ordinal()],
+                     b.patchIndex(sq("f3").index()) / 81 % 3);
+        b.retract();
+        for (int l = 0; l < lines.length; l += 1) {
+            assertEquals(lines[l], b.lineIndex(l));
+        }
+        assertEquals(0, PatternEvaluator.defaults().score(new Board()));
+    }
+
+    @Test
+    public void testEvaluationTerms() {
+        Board b = new Board(BOARD1, BP);
+        MachinePlayer player = new MachinePlayer();
+        int[] terms = new int[MachinePlayer.NUM_TERMS];
+        MachinePlayer.terms(b.occupied(BP), b.occupied(WP), terms);
+        int[] weights = MachinePlayer.weights();
+        int score = 0;
+        for (int t = 0; t < terms.length; t += 1) {
+            score += weights[t] * terms[t];
+        }
+        assertEquals(player.staticScore(b), score);
+    }
+
+    @Test
+    public void testGameRecord() throws IOException {
+        Board board1 = new Board(BOARD1, BP);
+        Board b = new Board(new BoardSnapshot(board1.occupied(BP),
+                                              board1.occupied(WP), BP,
+                                              40, 30));
+        String start = b.position();
+        GameRecord game = new GameRecord(b);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 3; k += 1) {
+            b.legalMoves(moves);
+            b.makeMove(moves[0]);
+            game.add(moves[0]);
+        }
+        GameRecord copy = GameRecord.read(new DataInputStream(
+            new ByteArrayInputStream(game.encode())));
+        assertEquals(GameRecord.UNFINISHED, copy.result());
+        assertEquals(3, copy.size());
+        Board replay = copy.start();
+        assertEquals(start, replay.position());
+        for (int k = 0; k < copy.size(); k += 1) {
+            replay.makeMove(copy.move(k));
+        }
+        assertEquals(b.position(), replay.position());
+        ByteArrayOutputStream text = new ByteArrayOutputStream();
+        copy.writeText(new PrintStream(text));
+        assertTrue(text.toString().contains("load " + start));
+    }
+
+    @Test
+    public void testGameDatabase() throws IOException {
+        Board b = new Board(BOARD1, BP), other = new Board();
+        GameRecord game = new GameRecord(b),
+            reflected = new GameRecord(
+                new Board(new BoardSnapshot(
+                    Symmetry.transform(b.occupied(BP), Symmetry.MIRROR),
+                    Symmetry.transform(b.occupied(WP), Symmetry.MIRROR),
+                    BP, 0, b.moveLimit()))),
+            unrelated = new GameRecord(other);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 4; k += 1) {
+            b.legalMoves(moves);
+            b.makeMove(moves[0]);
+            game.add(moves[0]);
+            reflected.add(Symmetry.move(moves[0], Symmetry.MIRROR));
+            other.legalMoves(moves);
+            other.makeMove(moves[0]);
+            unrelated.add(moves[0]);
+        }
+        game.finish(BP);
+        reflected.finish(WP);
+        Path dir = Files.createTempDirectory("loa");
+        String name = dir.resolve("games").toString();
+        try {
+            try (GameRecorder out = new GameRecorder(name)) {
+                out.record(game);
+                out.record(unrelated);
+                out.record(reflected);
+            }
+            assertEquals(15, GameDatabase.index(name));
+            GameDatabase db = GameDatabase.open(name);
+            assertEquals(3, db.games());
+            assertEquals(15, db.size());
+            b.retract();
+            b.retract();
+            long key = Symmetry.key(b, false);
+            List<GameDatabase.Hit> hits = db.find(key);
+            assertEquals(2, hits.size());
+            assertEquals(2, db.count(key));
+            assertEquals(0, hits.get(0).game);
+            assertEquals(2, hits.get(0).ply);
+            assertEquals(GameRecord.BLACK_WINS, hits.get(0).result);
+            assertEquals(2, hits.get(1).game);
+            assertEquals(2, hits.get(1).ply);
+            assertEquals(GameRecord.WHITE_WINS, hits.get(1).result);
+            hits = db.find(Symmetry.key(other, false));
+            assertEquals(1, hits.size());
+            assertEquals(1, hits.get(0).game);
+            assertEquals(4, hits.get(0).ply);
+            assertEquals(GameRecord.UNFINISHED, hits.get(0).result);
+            assertTrue(db.find(Symmetry.key(new Board(BOARD1, WP),
+                                            false)).isEmpty());
+            assertEquals(4, db.game(2).size());
+        } finally {
+            Files.deleteIfExists(Paths.get(name + GameDatabase.SUFFIX));
+            Files.deleteIfExists(Paths.get(name));
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testPositionNotation() {
+        assertEquals("1bbbbbb1/w6w/w6w/w6w/w6w/w6w/w6w/1bbbbbb1 b 0 30",
+                     new Board().position());
+        Board b = new Board(BOARD1, BP);
+        b.makeMove(mv("f3-d5"));
+        Board copy = Board.fromPosition(b.position());
+        assertEquals(b.toString(), copy.toString());
+        assertEquals(b.hashKey(), copy.hashKey());
+        assertEquals(1, copy.movesMade());
+        assertEquals(0, copy.movesRecorded());
+        assertEquals(b.position(), copy.position());
+        Board tied = Board.fromPosition("8/8/2b5/2w5/8/3b4/3w4/8 w 9 5");
+        assertEquals(1, tied.movesLeft());
+        for (String bad : new String[] {
+                "", "8/8/8/8/8/8/8/8", "8/8/8/8/8/8/8 b", "9/8/8/8/8/8/8/8 b",
+                "8/8/8/8/8/8/8/8 x", "8/8/8/8/8/8/8/8 b 10 5" }) {
+            try {
+                Board.fromPosition(bad);
+                fail("accepted " + bad);
+            } catch (IllegalArgumentException excp) {
+                /* Expected. */
+            }
+        }
+    }
+
+    @Test
+    public void testMoveLimitHorizon() {
+        MachinePlayer player = new MachinePlayer();
+        String start = "1bbbbbb1/w6w/w6w/w6w/w6w/w6w/w6w/1bbbbbb1 b 58 30";
+        Board b = Board.fromPosition(start);
+        assertEquals(2, b.movesLeft());
+        MachinePlayer.Analysis analysis = player.analyze(b, 6, 0);
+        assertEquals(2, analysis.depth);
+        assertEquals(0, analysis.score);
+        assertEquals(2, analysis.pv.length);
+        assertEquals(start, b.position());
+    }
+
+    @Test
+    public void testSnapshot() {
+        Board b = new Board(BOARD1, BP);
+        b.setMoveLimit(20);
+        b.makeMove(mv("f3-d5"));
+        BoardSnapshot snap = b.snapshot();
+        assertEquals(b.position(), snap.toString());
+        assertEquals(b.occupied(WP), snap.occupied(WP));
+        assertEquals(WP, snap.turn());
+        assertEquals(b.movesLeft(), snap.movesLeft());
+        Board copy = new Board(snap);
+        assertEquals(b.toString(), copy.toString());
+        assertEquals(b.hashKey(), copy.hashKey());
+        assertEquals(snap, copy.snapshot());
+        assertEquals(snap.hashCode(), copy.snapshot().hashCode());
+        b.retract();
+        assertNotEquals(snap, b.snapshot());
+        assertEquals(copy.position(), snap.toString());
+    }
+
+    @Test
+    public void testSymmetry() {
+        for (int t = 0; t < Symmetry.NUM_ORIENTATIONS; t += 1) {
+            for (int s = 0; s < Square.NUM_SQUARES; s += 1) {
+                int image = Symmetry.square(s, t);
+                assertEquals(1L << image, Symmetry.transform(1L << s, t));
+                assertEquals(s, Symmetry.square(image, Symmetry.inverse(t)));
+            }
+        }
+        Board b = new Board(BOARD1, BP);
+        long key = Symmetry.key(b, false), blind = Symmetry.key(b, true);
+        List<Move> moves = b.legalMoves();
+        for (int t = 0; t < Symmetry.NUM_ORIENTATIONS; t += 1) {
+            long black = Symmetry.transform(b.occupied(BP), t),
+                white = Symmetry.transform(b.occupied(WP), t);
+            Board image = new Board(new BoardSnapshot(black, white, BP, 0,
+                                                      b.moveLimit()));
+            assertEquals(key, Symmetry.key(image, false));
+            assertEquals(blind, Symmetry.key(image, true));
+            for (Move move : moves) {
+                int code = Symmetry.move(move.code(), t);
+                assertTrue(image.isLegal(mv(code & ~Move.CAPTURE_FLAG)));
+                assertEquals(move.code(),
+                             Symmetry.move(code, Symmetry.inverse(t)));
+            }
+            Board swapped = new Board(new BoardSnapshot(white, black, WP, 0,
+                                                        b.moveLimit()));
+            assertEquals(blind, Symmetry.key(swapped, true));
+            assertNotEquals(key, Symmetry.key(swapped, false));
+        }
+    }
+
+    @Test
+    public void testMovePicker() {
+        Board b1 = new Board(BOARD1, BP), b2 = new Board(BOARD1, BP);
+        b2.makeMove(mv("f3-d5"));
+        MovePicker picker = new MovePicker();
+        int[] moves = new int[Board.MAX_MOVES];
+        assertTrue(b1.legalMoves(moves, Board.CAPTURES) > 0);
+        for (Board b : new Board[] { new Board(), b1, b2,
+                                     new Board(BOARD2, WP) }) {
+            int n = b.legalMoves(moves), capture = 0, quiet = 0, other = 0,
+                illegal = 1;
+            HashSet<Integer> legal = new HashSet<>();
+            for (int i = 0; i < n; i += 1) {
+                legal.add(moves[i] & ~Move.CAPTURE_FLAG);
+                if (b.isCapture(moves[i])) {
+                    capture = moves[i];
+                } else if (quiet == 0) {
+                    quiet = moves[i];
+                } else {
+                    other = moves[i];
+                }
+            }
+            while (b.isLegal(illegal)) {
+                illegal += 1;
+            }
+            int[][] orders = {
+                { 0, 0, 0 },
+                { capture, quiet, other },
+                { quiet, quiet, other },
+                { other, capture, other },
+                { illegal, illegal, quiet },
+            };
+            for (int[] order : orders) {
+                picker.start(b, order[0], order[1], order[2]);
+                HashSet<Integer> seen = new HashSet<>();
+                int first = picker.next();
+                for (int move = first; move != 0; move = picker.next()) {
+                    assertTrue(seen.add(move & ~Move.CAPTURE_FLAG));
+                }
+                assertEquals(legal, seen);
+                if (order[0] != 0 && legal.contains(order[0]
+                                                    & ~Move.CAPTURE_FLAG)) {
+                    assertEquals(order[0] & ~Move.CAPTURE_FLAG,
+                                 first & ~Move.CAPTURE_FLAG);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMultiPV() {
+        Board b = new Board(BOARD1, BP);
+        MachinePlayer player = new MachinePlayer();
+        List<MachinePlayer.Analysis> lines = player.analyze(b, 3, 0, 3);
+        MachinePlayer.Analysis single = new MachinePlayer().analyze(b, 3, 0);
+        int sense = b.turn() == WP ? 1 : -1;
+        assertEquals(3, lines.size());
+        assertEquals(single.move, lines.get(0).move);
+        assertEquals(single.score, lines.get(0).score);
+        for (int k = 1; k < lines.size(); k += 1) {
+            assertTrue(sense * lines.get(k - 1).score
+                       >= sense * lines.get(k).score);
+            for (int j = 0; j < k; j += 1) {
+                assertNotEquals(lines.get(j).move, lines.get(k).move);
+            }
+        }
+        MachinePlayer.Analysis again = player.analyze(b, 3, 0);
+        assertEquals(single.move, again.move);
+        assertEquals(single.score, again.score);
+    }
+
+    @Test
+    public void testRepetitions() {
+        Board b = new Board();
+        String[] cycle = { "b1-b3", "a2-c2", "b3-b1", "c2-a2" };
+        for (int n = 1; n <= 2; n += 1) {
+            for (String move : cycle) {
+                b.makeMove(mv(move));
+            }
+            assertTrue(b.isRepetition());
+            assertEquals(n, b.repetitions());
+        }
+        b.makeMove(mv("b1-b3"));
+        assertTrue(b.isRepetition());
+        b.retract();
+        assertEquals(2, b.repetitions());
+    }
+
+    @Test
+    public void testBatchRepetition() {
+        Board b = Board.fromPosition("1bbb1bb1/5w1w/w5bw/w7/w6w/wb5b/w6w/"
+                                     + "w1bbb1b1 b 6 30");
+        b.makeMove(mv("c8-e6"));
+        b.makeMove(mv("a4-c4"));
+        b.makeMove(mv("e6-c8"));
+        assertTrue(b.repeatsAfter(mv("c4-a4").code()));
+        b.retract();
+        MachinePlayer.Analysis batched, plain;
+        try {
+            MachinePlayer.setBatchEvaluation(true);
+            batched = new MachinePlayer().analyze(b, 2, 0);
+        } finally {
+            MachinePlayer.setBatchEvaluation(false);
+        }
+        plain = new MachinePlayer().analyze(b, 2, 0);
+        assertEquals(plain.move, batched.move);
+        assertEquals(mv("e6-c8").code(), batched.move);
+        assertTrue(batched.nodes > b.legalMoves().size());
+    }
+
+    @Test
+    public void testMctsPlayer() {
+        Board b = new Board(BOARD1, BP);
+        String start = b.position();
+        try {
+            MctsPlayer.setThreads(2);
+            int move = new MctsPlayer().search(b, 1);
+            assertTrue(b.isLegal(mv(move & ~Move.CAPTURE_FLAG)));
+        } finally {
+            MctsPlayer.setThreads(Runtime.getRuntime().availableProcessors());
+        }
+        assertEquals(start, b.position());
+    }
+
+    @Test
+    public void testProofSolver() {
+        ProofSolver solver = new ProofSolver(16);
+        Board b = Board.fromPosition("8/3b2w1/8/8/4b3/8/8/w7 b 0 100");
+        String start = b.position();
+        assertEquals(ProofSolver.PROVEN, solver.solve(b, 100_000));
+        assertEquals(start, b.position());
+        int win = solver.winningMove();
+        assertTrue(b.isLegal(mv(win & ~Move.CAPTURE_FLAG)));
+        b.makeMove(win);
+        int[] replies = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(replies);
+        for (int i = 0; i < n; i += 1) {
+            b.makeMove(replies[i]);
+            assertEquals(ProofSolver.PROVEN,
+                         new ProofSolver(16).solve(b, 100_000));
+            b.retract();
+        }
+        b.retract();
+
+        Board lost = Board.fromPosition("b7/8/8/1b6/w7/8/8/2w5 w 0 100"),
+            tied = Board.fromPosition("8/3b2w1/8/8/4b3/8/8/w7 b 0 1");
+        assertEquals(ProofSolver.DISPROVEN, solver.solve(lost, 100_000));
+        assertEquals(ProofSolver.DISPROVEN,
+                     new ProofSolver(16).solve(tied, 100_000));
+
+        Board open = new Board(BOARD1, BP);
+        start = open.position();
+        ProofSolver limited = new ProofSolver(16);
+        assertEquals(ProofSolver.UNKNOWN, limited.solve(open, 10));
+        assertTrue(limited.nodes() <= 10);
+        assertEquals(start, open.position());
+        assertEquals(ProofSolver.UNKNOWN,
+                     limited.solve(open, Long.MAX_VALUE, 0));
+        assertTrue(limited.nodes() < 10_000);
+        assertEquals(start, open.position());
+    }
+
+    @Test
+    public void testOpeningBook() throws IOException {
+        List<OpeningBook.Entry> built = OpeningBook.build(2, 1, 1);
+        assertEquals(2, built.size());
+        StubPlayer human = new StubPlayer(EMP, null, true, "");
+        Game game = new Game(new NullView(), null, QUIET, human, human,
+                             false);
+        Path dir = Files.createTempDirectory("loa");
+        String name = dir.resolve("book").toString(),
+            merged = dir.resolve("merged").toString(),
+            pruned = dir.resolve("pruned").toString();
+        try {
+            OpeningBook.write(name, built);
+            OpeningBook book = OpeningBook.open(name);
+            assertEquals(2, book.size());
+            Board b = new Board();
+            Move first = book.choose(b, game);
+            assertTrue(b.isLegal(first));
+            b.makeMove(first);
+            Move reply = book.choose(b, game);
+            assertTrue(b.isLegal(reply));
+            long black = b.occupied(BP), white = b.occupied(WP);
+            for (int t = 0; t < Symmetry.NUM_ORIENTATIONS; t += 1) {
+                long bt = Symmetry.transform(black, t),
+                    wt = Symmetry.transform(white, t);
+                Board image = new Board(new BoardSnapshot(bt, wt, WP, 1,
+                                                          b.moveLimit())),
+                    swapped = new Board(new BoardSnapshot(wt, bt, BP, 1,
+                                                          b.moveLimit()));
+                int expected = Symmetry.move(reply.code(), t);
+                for (Board pos : new Board[] { image, swapped }) {
+                    Move move = book.choose(pos, game);
+                    assertEquals(expected & ~Move.CAPTURE_FLAG,
+                                 move.code() & ~Move.CAPTURE_FLAG);
+                    assertTrue(pos.isLegal(move));
+                }
+            }
+            OpeningBook.main("merge", merged, name, name);
+            List<OpeningBook.Entry> entries =
+                OpeningBook.open(merged).entries();
+            assertEquals(2, entries.size());
+            assertEquals(2, entries.get(0).weight);
+            OpeningBook.main("prune", pruned, merged, "3");
+            assertEquals(0, OpeningBook.open(pruned).size());
+        } finally {
+            for (String file : new String[] { name, merged, pruned }) {
+                Files.deleteIfExists(Paths.get(file));
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testAnalyzer() throws IOException {
+        StringBuilder input = new StringBuilder("# positions\n\n");
+        Board b = new Board();
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int k = 0; k < 20; k += 1) {
+            input.append(b.position()).append('\n');
+            b.legalMoves(moves);
+            b.makeMove(moves[k % 3]);
+        }
+        String won = new Board(BOARD2, WP).position();
+        input.append("nonsense\n").append(won).append('\n');
+        String[] lines = input.toString().split("\n", -1);
+        String[] parallel = analyzeAll(input.toString(), 3),
+            serial = analyzeAll(input.toString(), 1);
+        assertArrayEquals(serial, parallel);
+        assertEquals(lines.length - 1, parallel.length);
+        for (int i = 0; i < parallel.length; i += 1) {
+            assertTrue(parallel[i].startsWith(lines[i]));
+        }
+        assertEquals("# positions", parallel[0]);
+        assertEquals("", parallel[1]);
+        assertTrue(parallel[2].contains(" ; best "));
+        assertTrue(parallel[22].startsWith("nonsense ; error "));
+        assertEquals(won + " ; over black", parallel[23]);
+    }
+
+    /** Return the output lines of an Analyzer searching to depth 2 on
+     *  THREADS threads given INPUT. */
+    private static String[] analyzeAll(String input, int threads)
+        throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new Analyzer(2, 0, threads)
+            .run(new BufferedReader(new StringReader(input)),
+                 new PrintStream(output));
+        return output.toString().split("\n");
+    }
+
+    @Test
+    public void testPondering() {
+        MachinePlayer[] made = new MachinePlayer[1];
+        MachinePlayer template = new MachinePlayer() {
+            @Override
+            Player create(Piece piece, Game game) {
+                made[0] = new MachinePlayer(piece, game);
+                return made[0];
+            }
+        };
+        StubPlayer human = new StubPlayer(EMP, null, true, "");
+        Game game = new Game(new NullView(), null, QUIET, human, template,
+                             false);
+        MachinePlayer white = made[0];
+        game.processCommand("load 1bbbbbb1/w6w/w6w/w6w/w6w/w6w/w6w/"
+                            + "1bbbbbb1 w 1 30");
+        try {
+            MachinePlayer.setPondering(true);
+            MachinePlayer.setTimeLimit(PONDER_MILLIS);
+            white.startMove();
+            Move move = Move.mv(white.getMove());
+            assertTrue(game.getBoard().isLegal(move));
+            assertTrue(white.pondering());
+            long start = System.currentTimeMillis();
+            game.processCommand("new");
+            assertFalse(white.pondering());
+            assertTrue(System.currentTimeMillis() - start < PONDER_MILLIS);
+        } finally {
+            MachinePlayer.setPondering(false);
+            MachinePlayer.setTimeLimit(0);
+        }
+    }
+
+    @Test
+    public void testMoveNow() {
+        StubPlayer ai = new StubPlayer(EMP, null, false, "movenow\nnext\n");
+        Game game = new Game(new NullView(), null, null, ai, ai, false);
+        Player white = ai.create(WP, game);
+        white.moveNow();
+        assertEquals("next", game.think(white));
+        assertNull(game.readLine(false));
+        StubPlayer human =
+            new StubPlayer(EMP, null, true, "movenow\nstop\n");
+        game = new Game(new NullView(), null, null, human, human, false);
+        StubPlayer black = (StubPlayer) human.create(BP, game);
+        assertEquals("movenow", game.think(black));
+        assertFalse(game.moveNow());
+        assertEquals("stop", game.readLine(false));
+        assertNull(game.readLine(false));
+        assertEquals(1, black._hurried.getCount());
+    }
+
+    @Test
+    public void testTablebase() throws IOException {
+        String[] positions = {
+            "8/8/6b1/8/2w5/8/5w2/6b1 w 0 100",
+            "b7/8/8/1b6/w7/8/8/2w5 w 0 100",
+            "8/3b2w1/8/8/4b3/8/8/w7 b 0 100",
+            "6wb/8/1b6/5w2/8/8/8/8 b 0 100",
+            "4w3/8/8/8/2bw4/8/5b2/8 w 0 100",
+            "8/8/2w5/8/5b2/8/1bb5/8 w 0 100",
+        };
+        Path file = Files.createTempFile("loa", ".tb");
+        try {
+            Tablebase.build(file.toString(), 4);
+            Tablebase tables = Tablebase.open(file.toString());
+            assertEquals(4, tables.maxPieces());
+            for (String posn : positions) {
+                Board b = Board.fromPosition(posn);
+                long black = b.occupied(BP), white = b.occupied(WP);
+                int v = tables.probe(b);
+                assertEquals(posn, forcedValue(b, 4), v);
+                for (int t = 0; t < Symmetry.NUM_ORIENTATIONS; t += 1) {
+                    long bt = Symmetry.transform(black, t),
+                        wt = Symmetry.transform(white, t);
+                    assertEquals(v, tables.probe(bt, wt, b.turn()));
+                    assertEquals(v, tables.probe(wt, bt,
+                                                 b.turn().opposite()));
+                }
+            }
+            assertNotEquals(0, Symmetry.orientation(
+                Board.fromPosition(positions[0]).occupied(BP),
+                Board.fromPosition(positions[0]).occupied(WP)));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /** Return the value of B for the side to move, as for
+     *  Tablebase.probe, if either side can force a win within DEPTH
+     *  more moves, and 0 otherwise, found by a full search. */
+    private static int forcedValue(Board b, int depth) {
+        Piece winner = b.winner();
+        if (winner != null) {
+            return winner == b.turn() ? 1 : -1;
+        } else if (depth == 0) {
+            return 0;
+        }
+        int[] moves = new int[Board.MAX_MOVES];
+        int n = b.legalMoves(moves);
+        int best = -1;
+        for (int i = 0; i < n; i += 1) {
+            b.makeMove(moves[i]);
+            int v = forcedValue(b, depth - 1);
+            b.retract();
+            v = v > 0 ? -v - 1 : v < 0 ? -v + 1 : 0;
+            if (rank(v) > rank(best)) {
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    /** Return a number that orders tablebase value V by its worth to the
+     *  side to move. */
+    private static int rank(int v) {
+        return v > 0 ? Tablebase.MAX_DISTANCE - v
+            : v < 0 ? -Tablebase.MAX_DISTANCE - v : 0;
+    }
+
+    /** Time limit of the search in testPondering, in milliseconds. */
+    static final long PONDER_MILLIS = 1000;
+
+    /** A Reporter that reports nothing. */
+    static final Reporter QUIET = new Reporter() {
+        @Override
+        public void reportError(String format, Object... args) {
+        }
+
+        @Override
+        public void reportNote(String format, Object... args) {
+        }
+
+        @Override
+        public void reportMove(Move move) {
+        }
+    };
+
+    /** A player whose move is the next line of LINES, the input of its
+     *  game, which it starts reading when asked for its move.  Unless
+     *  it is manual, it first waits for a call to moveNow since its
+     *  last call to startMove. */
+    static class StubPlayer extends Player {
+        /** A player of SIDE in GAME reading LINES, which is manual iff
+         *  MANUAL. */
+        StubPlayer(Piece side, Game game, boolean manual, String lines) {
+            super(side, game);
+            _manual = manual;
+            _lines = lines;
+        }
+
+        @Override
+        String getMove() {
+            getGame().startInput(new BufferedReader(new StringReader(_lines)));
+            try {
+                assertTrue(_manual
+                           || _hurried.await(WAIT_SECONDS, TimeUnit.SECONDS));
+            } catch (InterruptedException excp) {
+                fail("interrupted");
+            }
+            return getGame().readLine(false);
+        }
+
+        @Override
+        void startMove() {
+            _hurried = new CountDownLatch(1);
+        }
+
+        @Override
+        void moveNow() {
+            _hurried.countDown();
+        }
+
+        @Override
+        boolean isManual() {
+            return _manual;
+        }
+
+        @Override
+        Player create(Piece piece, Game game) {
+            return new StubPlayer(piece, game, _manual, _lines);
+        }
+
+        /** Longest wait for moveNow, in seconds. */
+        static final int WAIT_SECONDS = 10;
+        /** True iff I am manual. */
+        private final boolean _manual;
+        /** My game's input. */
+        private final String _lines;
+        /** Released by moveNow. */
+        private volatile CountDownLatch _hurried = new CountDownLatch(1);
+    }
 }
@@ -10,11 +10,16 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
 
 import static loa.Piece.*;
 import static loa.Square.sq;
 
-/** A widget that displays a Loa game.
+/** A widget that displays a Loa game.  The board is drawn into an
+ *  offscreen image, which paintComponent copies to the screen.  Each
+ *  update redraws in that image, and asks to repaint, only the squares
+ *  whose contents have changed, from an image of the empty board and
+ *  one of each piece drawn once at the start.
  *  @author Manaal
  */
 class BoardWidget extends Pad {
@@ -32,7 +37,8 @@ class BoardWidget extends Pad {
         LIGHT_SQUARE_COLOR = new Color(1.0f, 0.805f, 0.617f),
         BORDER_COLOR = new Color(0.408f, 0.271f, 0.138f),
         GRID_LINE_COLOR = Color.black,
-        PIECE_BOUNDARY_COLOR = Color.black;
+        PIECE_BOUNDARY_COLOR = Color.black,
+        HIGHLIGHT_COLOR = new Color(0.1f, 0.4f, 0.9f, 0.6f);
 
     /** Width of border around board (pixels). */
     static final int BORDER_WIDTH = 6;
@@ -53,7 +59,9 @@ class BoardWidget extends Pad {
     static final BasicStroke
         BORDER_STROKE = new BasicStroke(BORDER_WIDTH, BasicStroke.CAP_ROUND,
                                         BasicStroke.JOIN_ROUND),
-        PIECE_BOUNDARY_STROKE = new BasicStroke(1.0f);
+        PIECE_BOUNDARY_STROKE = new BasicStroke(1.0f),
+        HIGHLIGHT_STROKE = new BasicStroke(4.0f, BasicStroke.CAP_ROUND,
+                                           BasicStroke.JOIN_ROUND);
 
     /** A graphical representation of a Loa board that sends commands
      *  derived from mouse clicks to COMMANDS.  */
@@ -63,6 +71,13 @@ class BoardWidget extends Pad {
         setMouseHandler("release", this::mouseAction);
         setPreferredSize(BOARD_SIDE, BOARD_SIDE);
         _acceptingMoves = false;
+        Graphics2D g = _grid.createGraphics();
+        drawGrid(g);
+        g.dispose();
+        g = _image.createGraphics();
+        g.drawImage(_grid, 0, 0, null);
+        g.dispose();
+        update(new Board().snapshot());
     }
 
     /** Draw the bare board G.  */
@@ -87,57 +102,98 @@ class BoardWidget extends Pad {
 
     }
 
+    /** Return an image of a piece of color COLOR, with a transparent
+     *  background, to be drawn PIECE_OFFSET pixels from the corner of
+     *  its square. */
+    private static BufferedImage drawPiece(Color color) {
+        BufferedImage piece =
+            new BufferedImage(PIECE_SIZE + 1, PIECE_SIZE + 1,
+                              BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = piece.createGraphics();
+        g.setColor(color);
+        g.fillOval(0, 0, PIECE_SIZE, PIECE_SIZE);
+        g.setColor(PIECE_BOUNDARY_COLOR);
+        g.setStroke(PIECE_BOUNDARY_STROKE);
+        g.drawOval(0, 0, PIECE_SIZE, PIECE_SIZE);
+        g.dispose();
+        return piece;
+    }
+
     @Override
     public synchronized void paintComponent(Graphics2D g) {
-        drawGrid(g);
-        for (Square sq : Square.ALL_SQUARES) {
-            drawPiece(g, sq);
-        }
+        g.drawImage(_image, 0, 0, null);
+        drawHighlight(g);
     }
 
-    /** Draw the contents of S on G. */
-    private void drawPiece(Graphics2D g, Square s) {
-        Piece p = _board.get(s);
-        switch (p) {
-        case EMP:
+    /** Draw the highlighted move, if any, on G as a line from the
+     *  center of its from square to the center of its to square. */
+    private void drawHighlight(Graphics2D g) {
+        if (_highlight == null) {
             return;
-        case WP:
-            g.setColor(WHITE_COLOR);
-            break;
-        case BP:
-            g.setColor(BLACK_COLOR);
-            break;
-        default:
-            assert false;
         }
-        g.fillOval(cx(s) + PIECE_OFFSET, cy(s) + PIECE_OFFSET,
-                   PIECE_SIZE, PIECE_SIZE);
-        g.setColor(PIECE_BOUNDARY_COLOR);
-        g.setStroke(PIECE_BOUNDARY_STROKE);
-        g.drawOval(cx(s) + PIECE_OFFSET, cy(s) + PIECE_OFFSET,
-                   PIECE_SIZE, PIECE_SIZE);
+        int half = SQUARE_SIDE / 2;
+        g.setColor(HIGHLIGHT_COLOR);
+        g.setStroke(HIGHLIGHT_STROKE);
+        g.drawLine(cx(_highlight.getFrom()) + half,
+                   cy(_highlight.getFrom()) + half,
+                   cx(_highlight.getTo()) + half,
+                   cy(_highlight.getTo()) + half);
+    }
+
+    /** Redraw the square with index S on G, an image of the board, as
+     *  it is in _shown. */
+    private void drawSquare(Graphics2D g, int s) {
+        int x = cx(s % SIZE), y = cy(s / SIZE);
+        g.drawImage(_grid, x, y, x + SQUARE_SIDE, y + SQUARE_SIDE,
+                    x, y, x + SQUARE_SIDE, y + SQUARE_SIDE, null);
+        long mask = 1L << s;
+        if ((_shown.occupied(BP) & mask) != 0) {
+            g.drawImage(BLACK_PIECE, x + PIECE_OFFSET, y + PIECE_OFFSET,
+                        null);
+        } else if ((_shown.occupied(WP) & mask) != 0) {
+            g.drawImage(WHITE_PIECE, x + PIECE_OFFSET, y + PIECE_OFFSET,
+                        null);
+        }
+    }
+
+    /** Repaint the smallest rectangle of squares containing MOVE, if it
+     *  is not null. */
+    private void repaint(Move move) {
+        if (move != null) {
+            Square from = move.getFrom(), to = move.getTo();
+            int x = Math.min(cx(from), cx(to)), y = Math.min(cy(from), cy(to));
+            repaint(x, y, Math.abs(cx(from) - cx(to)) + SQUARE_SIDE,
+                    Math.abs(cy(from) - cy(to)) + SQUARE_SIDE);
+        }
     }
 
+    /** Return a board in the position shown, for checking the moves
+     *  clicked. */
+    private Board board() {
+        if (_board == null) {
+            _board = new Board(_shown);
+        }
+        return _board;
+    }
 
     /** Handle a mouse-button push on S. */
     private void mousePressed(Square s) {
+        Board board = board();
         boolean notNull = _lastclick != null;
-        boolean isL = _board.isLegal(_lastclick, s);
+        boolean isL = board.isLegal(_lastclick, s);
         if (notNull && _lastclick != s && isL) {
             Move move = Move.mv(_lastclick, s);
             _commands.add(move.toString());
             _lastclick = null;
         } else if ((notNull && !isL) || _lastclick == s) {
             _lastclick = null;
-        } else if (_board.get(s) == _board.turn()) {
+        } else if (board.get(s) == board.turn()) {
             _lastclick = s;
         }
-        repaint();
     }
 
     /** Handle a mouse-button release on S. */
     private void mouseReleased(Square s) {
-        repaint();
     }
 
     /** Handle mouse click event E. */
@@ -161,10 +217,35 @@ class BoardWidget extends Pad {
         }
     }
 
-    /** Revise the displayed board according to BOARD. */
-    synchronized void update(Board board) {
-        _board.copyFrom(board);
-        repaint();
+    /** Revise the displayed board to show POSITION, redrawing only the
+     *  squares whose contents differ from those shown. */
+    synchronized void update(BoardSnapshot position) {
+        BoardSnapshot old = _shown;
+        _shown = position;
+        long changed = (old.occupied(BP) ^ position.occupied(BP))
+            | (old.occupied(WP) ^ position.occupied(WP));
+        if (!position.equals(old)) {
+            _board = null;
+        }
+        if (changed == 0) {
+            return;
+        }
+        Graphics2D g = _image.createGraphics();
+        for (; changed != 0; changed &= changed - 1) {
+            int s = Long.numberOfTrailingZeros(changed);
+            drawSquare(g, s);
+            repaint(cx(s % SIZE), cy(s / SIZE), SQUARE_SIDE, SQUARE_SIDE);
+        }
+        g.dispose();
+    }
+
+    /** Highlight MOVE, or nothing if MOVE is null. */
+    synchronized void setHighlight(Move move) {
+        if (move != _highlight) {
+            repaint(_highlight);
+            _highlight = move;
+            repaint(move);
+        }
     }
 
     /** Turn on move collection iff COLLECTING, and clear any current
@@ -172,7 +253,6 @@ class BoardWidget extends Pad {
      *  the board. */
     void setMoveCollection(boolean collecting) {
         _acceptingMoves = collecting;
-        repaint();
     }
 
     /** Return x-pixel coordinate of the left corners of column X
@@ -199,14 +279,31 @@ class BoardWidget extends Pad {
         return cy(s.row());
     }
 
+    /** Images of the pieces. */
+    private static final BufferedImage
+        BLACK_PIECE = drawPiece(BLACK_COLOR),
+        WHITE_PIECE = drawPiece(WHITE_COLOR);
+
     /** Queue on which to post move commands (from mouse clicks). */
     private ArrayBlockingQueue<String> _commands;
-    /** Board being displayed. */
-    private final Board _board = new Board();
+    /** Position being displayed. */
+    private BoardSnapshot _shown = new BoardSnapshot(0, 0, BP, 0, 0);
+    /** Image of the empty board. */
+    private final BufferedImage _grid =
+        new BufferedImage(BOARD_SIDE, BOARD_SIDE, BufferedImage.TYPE_INT_RGB);
+    /** Image of the board as shown. */
+    private final BufferedImage _image =
+        new BufferedImage(BOARD_SIDE, BOARD_SIDE, BufferedImage.TYPE_INT_RGB);
+    /** Board in the position shown, for checking moves, or null if not
+     *  yet made. */
+    private Board _board;
 
     /** True iff accepting moves from user. */
     private boolean _acceptingMoves;
 
+    /** Move to highlight, or null. */
+    private Move _highlight;
+
     /** Returns the last square that was clicked. */
     private Square _lastclick;
 
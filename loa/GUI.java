@@ -9,6 +9,7 @@ import java.awt.Dimension;
 import javax.swing.JEditorPane;
 import javax.swing.JFrame;
 import javax.swing.JScrollPane;
+import javax.swing.Timer;
 
 import java.io.InputStream;
 import java.io.IOException;
@@ -35,6 +36,9 @@ class GUI extends TopLevel implements View, Reporter {
     /** Resource name of Loa help text. */
     static final String HELP_TEXT = "loa/Help.html";
 
+    /** Milliseconds between checks for an AI's progress. */
+    static final int PROGRESS_POLL = 2 * MachinePlayer.PROGRESS_INTERVAL;
+
     /** A new window with given TITLE providing a view of a Loa board. */
     GUI(String title) {
         super(title, true);
@@ -47,6 +51,7 @@ class GUI extends TopLevel implements View, Reporter {
         addMenuButton("Game Information->Help", this::help);
         addMenuButton("Game Information->About", this::about);
         addMenuButton("Game Options->Undo", this::undo);
+        addMenuButton("Game Options->Move Now", this::moveNow);
 
         _widget = new BoardWidget(_pendingCommands);
         add(_widget,
@@ -57,6 +62,33 @@ class GUI extends TopLevel implements View, Reporter {
                  new LayoutSpec("x", 0, "y", 0,
                                 "height", 1,
                                 "width", 3));
+        addLabel(" ", "Progress",
+                 new LayoutSpec("x", 0, "y", 2,
+                                "height", 1,
+                                "width", 3));
+        _progressTimer = new Timer(PROGRESS_POLL, e -> showProgress());
+        _progressTimer.start();
+    }
+
+    /** Show the latest progress of an AI choosing its move, if it has
+     *  changed since last shown, in the status line and by highlighting
+     *  its best move so far.  Runs on the event dispatch thread, which
+     *  only ever takes the latest report, so that however fast the AI
+     *  reports, each poll costs at most one label change and one
+     *  repaint. */
+    private void showProgress() {
+        SearchProgress progress = _game == null ? null : _game.progress();
+        if (progress == _shownProgress) {
+            return;
+        }
+        _shownProgress = progress;
+        if (progress == null) {
+            setLabel("Progress", " ");
+            _widget.setHighlight(null);
+        } else {
+            setLabel("Progress", "Thinking: " + progress);
+            _widget.setHighlight(progress.move());
+        }
     }
 
     /** Response to "Quit" button click. */
@@ -64,6 +96,20 @@ class GUI extends TopLevel implements View, Reporter {
         _pendingCommands.offer("quit");
     }
 
+    /** Have my buttons control GAME. */
+    void setGame(Game game) {
+        _game = game;
+    }
+
+    /** Response to "Move Now" button click.  Acts at once, rather than
+     *  through _pendingCommands, since the game reads no commands while
+     *  an AI is choosing its move. */
+    private void moveNow(String dummy) {
+        if (_game != null) {
+            _game.moveNow();
+        }
+    }
+
     /** Response to "New Game" button click. */
     private void newGame(String dummy) {
         _pendingCommands.offer("manual black");
@@ -89,7 +135,7 @@ class GUI extends TopLevel implements View, Reporter {
     public void update(Game controller) {
         Board board = controller.getBoard();
 
-        _widget.update(board);
+        _widget.update(board.snapshot());
         if (board.winner() != null) {
             setLabel("CurrentTurn",
                      String.format("Congrats, %s player, you win!",
@@ -213,6 +259,14 @@ class GUI extends TopLevel implements View, Reporter {
     /** The board widget. */
     private BoardWidget _widget;
 
+    /** The game I control, or null if not yet known. */
+    private volatile Game _game;
+
+    /** Polls _game for progress reports. */
+    private Timer _progressTimer;
+    /** The progress report now shown, or null. */
+    private SearchProgress _shownProgress;
+
     /** Queue of pending commands resulting from menu clicks and moves on the
      *  board.  We use a blocking queue because the responses to clicks
      *  on the board and on menus happen in parallel to the methods that
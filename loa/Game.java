@@ -2,9 +2,13 @@
  * University of California.  All rights reserved. */
 package loa;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.util.Random;
-import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -22,6 +26,12 @@ class Game {
     static final int MILLISEC = 1000;
     /** Name of help text resource. */
     static final String HELP_FILE = "loa/HelpText.txt";
+    /** Default budget, in positions, of the solve command. */
+    static final long SOLVE_NODES = 1_000_000;
+    /** Log2 of the number of slots in the solve command's table. */
+    private static final int SOLVE_TABLE_SIZE = 20;
+    /** Default number of moves listed by the analyze command. */
+    static final int ANALYSIS_LINES = 3;
 
     /** Controller for one or more games of LOA, using
      *  MANUALPLAYERTEMPLATE as an exemplar for manual players
@@ -38,7 +48,6 @@ class Game {
         _view = view;
         _playing = false;
         _logFile = logFile;
-        _input = new Scanner(System.in);
         _autoPlayerTemplate = autoPlayerTemplate;
         _manualPlayerTemplate = manualPlayerTemplate;
         _nonplayer = manualPlayerTemplate.create(EMP, this);
@@ -46,6 +55,21 @@ class Game {
         _black = _manualPlayerTemplate.create(BP, this);
         _reporter = reporter;
         _strict = strict;
+        _board = new Board();
+    }
+
+    /** Record each game played to RECORDER, if not null, in addition to
+     *  any log file. */
+    void setRecorder(GameRecorder recorder) {
+        _recorder = recorder;
+    }
+
+    /** End games as ties when a position occurs for the LIMIT-th time
+     *  with the same side to move, or never if LIMIT <= 0.  A LIMIT of
+     *  1 would end every game at once, so is not allowed. */
+    void setRepetitionLimit(int limit) {
+        assert limit != 1;
+        _repetitionLimit = limit;
     }
 
     /** Return the current board. */
@@ -55,20 +79,102 @@ class Game {
 
     /** Quit the game. */
     private void quit() {
+        closeRecorder();
         System.exit(0);
     }
 
     /** Return a move or command from the standard input, after prompting if
-     *  PROMPT. */
+     *  PROMPT, or null at the end of the input.  The input is read by a
+     *  thread of its own (see readInput), started on the first call
+     *  unless startInput has already been called. */
     String readLine(boolean prompt) {
         if (prompt) {
             prompt();
         }
-        if (_input.hasNextLine()) {
-            return _input.nextLine().trim();
-        } else {
-            return null;
+        if (_reader == null) {
+            startInput(new BufferedReader(new InputStreamReader(System.in)));
         }
+        try {
+            String line = _input.take();
+            if (line == END_OF_INPUT) {
+                _input.add(END_OF_INPUT);
+                return null;
+            }
+            return line;
+        } catch (InterruptedException excp) {
+            throw new Error("unexpected interrupt");
+        }
+    }
+
+    /** Start the thread that reads the lines returned by readLine from
+     *  IN, rather than from the standard input.  Must be called at most
+     *  once, before the first readLine. */
+    void startInput(BufferedReader in) {
+        assert _reader == null;
+        _reader = new Thread(() -> readInput(in), "input");
+        _reader.setDaemon(true);
+        _reader.start();
+    }
+
+    /** Body of the input thread: queue each line of IN for readLine,
+     *  followed by END_OF_INPUT.  A stop or movenow command read while
+     *  an AI is thinking about its move is not queued but obeyed at
+     *  once, so that it reaches that AI; read at any other time, it is
+     *  queued like any other command. */
+    private void readInput(BufferedReader in) {
+        try {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                line = line.trim();
+                if (!(line.equalsIgnoreCase("stop")
+                      || line.equalsIgnoreCase("movenow"))
+                    || !moveNow()) {
+                    _input.add(line);
+                }
+            }
+        } catch (IOException excp) {
+            /* Treat as the end of the input. */
+        }
+        _input.add(END_OF_INPUT);
+    }
+
+    /** Make the AI now choosing a move, if any, play the best move it
+     *  has found so far at once, returning true iff there is one.  May
+     *  be called from any thread. */
+    synchronized boolean moveNow() {
+        if (_thinking != null) {
+            _thinking.moveNow();
+            return true;
+        }
+        return false;
+    }
+
+    /** Return the latest progress report of the AI now choosing a move,
+     *  or null if there is none.  May be called from any thread. */
+    synchronized SearchProgress progress() {
+        return _thinking == null ? null : _thinking.progress();
+    }
+
+    /** Return the next move or command from PLAYER, who may be hurried
+     *  by moveNow meanwhile if it is an AI.  A manual player is never
+     *  recorded as thinking, so that stop and movenow typed during its
+     *  turn are queued for later. */
+    String think(Player player) {
+        if (player.isManual()) {
+            return player.getMove();
+        }
+        player.startMove();
+        setThinking(player);
+        try {
+            return player.getMove();
+        } finally {
+            setThinking(null);
+        }
+    }
+
+    /** Record PLAYER (null if none) as the AI choosing a move. */
+    private synchronized void setThinking(Player player) {
+        _thinking = player;
     }
 
     /** Print a prompt for a move. */
@@ -87,7 +193,7 @@ class Game {
         Pattern.compile("(#|\\S+)\\s*(\\S*)\\s*(\\S*)\\s*(\\S*).*");
 
     /** Process the command on LINE. */
-    private void processCommand(String line) {
+    void processCommand(String line) {
         line = line.trim();
         if (line.length() == 0) {
             return;
@@ -99,11 +205,13 @@ class Game {
         Matcher command = COMMAND_PATN.matcher(line);
         if (command.matches()) {
             switch (command.group(1).toLowerCase()) {
-            case "#":
+            case "#": case "stop": case "movenow":
                 break;
             case "new":
+                stopBackground();
                 _board.clear();
                 _playing = true;
+                startRecord();
                 break;
             case "dump":
                 System.out.printf("%s%n", _board);
@@ -121,19 +229,38 @@ class Game {
                 seedCommand(command.group(2));
                 break;
             case "set":
+                stopBackground();
                 setCommand(command.group(2), command.group(3).toLowerCase(),
                            command.group(4).toLowerCase());
+                startRecord();
                 break;
             case "limit":
                 limitCommand(command.group(2));
                 break;
+            case "load":
+                stopBackground();
+                loadCommand(line.substring(command.end(1)));
+                break;
+            case "position":
+                System.out.println(_board.position());
+                break;
             case "?": case "help":
                 help();
                 break;
+            case "solve":
+                solveCommand(command.group(2));
+                break;
+            case "analyze":
+                analyzeCommand(command.group(2));
+                break;
             case "undo":
-                if (getBoard().movesMade() >= 2) {
+                if (getBoard().movesRecorded() >= 2) {
+                    stopBackground();
                     getBoard().retract();
                     getBoard().retract();
+                    if (_record != null) {
+                        _record.undo(2);
+                    }
                 }
                 break;
             default:
@@ -174,9 +301,11 @@ class Game {
     private void manualCommand(String player) {
         switch (player) {
         case "white":
+            _white.stopBackground();
             _white = _manualPlayerTemplate.create(WP, this);
             break;
         case "black":
+            _black.stopBackground();
             _black = _manualPlayerTemplate.create(BP, this);
             break;
         default:
@@ -188,9 +317,11 @@ class Game {
     private void autoCommand(String player) {
         switch (player) {
         case "white":
+            _white.stopBackground();
             _white = _autoPlayerTemplate.create(WP, this);
             break;
         case "black":
+            _black.stopBackground();
             _black = _autoPlayerTemplate.create(BP, this);
             break;
         default:
@@ -224,17 +355,101 @@ class Game {
         }
     }
 
+    /** Set the board to the position POSN, in the notation of
+     *  Board.setPosition, and start play from it. */
+    private void loadCommand(String posn) {
+        _board.setPosition(posn);
+        _playing = true;
+        startRecord();
+    }
+
     /** Set the corrent move limit according to the numeral in LIMIT.  LIMIT
      *  must be a valid numeral that is greater than the current number of
      *  moves by either player in the current game. */
     private void limitCommand(String limit) {
         try {
             _board.setMoveLimit(Integer.parseInt(limit));
+            if (_record != null) {
+                _record.setLimit(_board.moveLimit());
+            }
         } catch (NumberFormatException excp) {
             throw new IllegalArgumentException("badly formed numeral");
         }
     }
 
+    /** Try to prove a forced win for the side to move in the current
+     *  position, expanding at most the number of positions in the numeral
+     *  NODES, or SOLVE_NODES if NODES is empty. */
+    private void solveCommand(String nodes) {
+        long budget;
+        try {
+            budget = nodes.isEmpty() ? SOLVE_NODES : Long.parseLong(nodes);
+        } catch (NumberFormatException excp) {
+            error("Invalid number: %s%n", nodes);
+            return;
+        }
+        Board position = new Board(_board);
+        String side = position.turn().fullName();
+        ProofSolver solver = new ProofSolver(SOLVE_TABLE_SIZE);
+        switch (solver.solve(position, budget)) {
+        case ProofSolver.PROVEN:
+            if (position.winner() != null) {
+                reportNote("%s has won.", side);
+            } else {
+                reportNote("%s wins with %s (proved in %d nodes).", side,
+                           Move.mv(solver.winningMove()
+                                   & ~Move.CAPTURE_FLAG),
+                           solver.nodes());
+            }
+            break;
+        case ProofSolver.DISPROVEN:
+            reportNote("%s cannot force a win (%d nodes).", side,
+                       solver.nodes());
+            break;
+        default:
+            reportNote("Unresolved after %d nodes.", solver.nodes());
+            break;
+        }
+    }
+
+    /** Report the best moves for the side to move in the current
+     *  position, as many as the numeral LINES, or ANALYSIS_LINES if
+     *  LINES is empty, each with its score (positive favoring white)
+     *  and expected line of play.  The search is limited as for an AI
+     *  player's move, or to DEFAULT_ANALYSIS_DEPTH if no time limit is
+     *  set. */
+    private void analyzeCommand(String lines) {
+        int n;
+        try {
+            n = lines.isEmpty() ? ANALYSIS_LINES : Integer.parseInt(lines);
+        } catch (NumberFormatException excp) {
+            error("Invalid number: %s%n", lines);
+            return;
+        }
+        if (n <= 0) {
+            error("Invalid number: %s%n", lines);
+            return;
+        }
+        if (_board.winner() != null) {
+            reportNote("Game is over.");
+            return;
+        }
+        long millis = MachinePlayer.timeLimit();
+        int depth = millis > 0 ? Integer.MAX_VALUE : DEFAULT_ANALYSIS_DEPTH;
+        int rank = 1;
+        for (MachinePlayer.Analysis line
+                 : new MachinePlayer().analyze(_board, depth, millis, n)) {
+            StringBuilder pv = new StringBuilder();
+            for (int move : line.pv) {
+                pv.append(' ').append(Move.mv(move));
+            }
+            reportNote("%d. %s score %d depth %d pv%s", rank,
+                       Move.mv(line.move & ~Move.CAPTURE_FLAG), line.score,
+                       line.depth, pv);
+            rank += 1;
+        }
+    }
+
     /** Perform the move designated by LINE, if a valid move.  Return
      *  true iff LINE has the syntax of a move. */
     private boolean processMove(String line) {
@@ -247,6 +462,9 @@ class Game {
             error("illegal move: %s%n", line);
         } else {
             _board.makeMove(move);
+            if (_record != null) {
+                _record.add(move.code());
+            }
         }
         return true;
     }
@@ -255,6 +473,7 @@ class Game {
     public void play() {
         _board = new Board();
         _playing = true;
+        startRecord();
 
         while (true) {
             try {
@@ -262,15 +481,22 @@ class Game {
                 _view.update(this);
                 if (_board.gameOver() && _playing) {
                     announceWinner();
+                    finishRecord(_board.winner());
+                    stopBackground();
+                    _playing = false;
+                } else if (_playing && repeated()) {
+                    _reporter.reportNote("Tie game by repetition.");
+                    finishRecord(EMP);
+                    stopBackground();
                     _playing = false;
                 }
                 if (_playing) {
                     switch (_board.turn()) {
                     case WP:
-                        next = _white.getMove();
+                        next = think(_white);
                         break;
                     case BP:
-                        next = _black.getMove();
+                        next = think(_black);
                         break;
                     default:
                         throw new Error("Unreachable statement");
@@ -279,6 +505,7 @@ class Game {
                     next = _nonplayer.getMove();
                 }
                 if (next == null) {
+                    closeRecorder();
                     return;
                 } else {
                     processCommand(next);
@@ -289,6 +516,60 @@ class Game {
         }
     }
 
+    /** If recording, write out the game in progress, if it has any
+     *  moves, as unfinished, and begin a new record from the current
+     *  position. */
+    private void startRecord() {
+        if (_recorder != null) {
+            if (_record != null && _record.size() > 0) {
+                _recorder.record(_record);
+            }
+            _record = new GameRecord(_board);
+        }
+    }
+
+    /** Stop the background thinking of both players, which no longer
+     *  applies once the position is reset or the game is over. */
+    private void stopBackground() {
+        _white.stopBackground();
+        _black.stopBackground();
+    }
+
+    /** Return true iff the repetition rule is in force and the current
+     *  position has occurred the number of times it allows. */
+    private boolean repeated() {
+        return _repetitionLimit > 0
+            && _board.repetitions() >= _repetitionLimit - 1;
+    }
+
+    /** If recording, write out the game in progress, which has just
+     *  ended with WINNER the winner (EMP for a tie). */
+    private void finishRecord(Piece winner) {
+        if (_record != null) {
+            _record.finish(winner);
+            _recorder.record(_record);
+            _record = null;
+        }
+    }
+
+    /** If recording, write out the game in progress and close the
+     *  record file. */
+    private void closeRecorder() {
+        if (_recorder != null) {
+            if (_record != null && _record.size() > 0) {
+                _recorder.record(_record);
+            }
+            _record = null;
+            try {
+                _recorder.close();
+            } catch (IOException excp) {
+                System.err.printf("Error: could not write game records: "
+                                  + "%s%n", excp.getMessage());
+            }
+            _recorder = null;
+        }
+    }
+
     /** Print an announcement of the winner.  Requires that the game has been
      *  won. */
     private void announceWinner() {
@@ -344,8 +625,24 @@ class Game {
     /** Log file, or null if absent. */
     private PrintStream _logFile;
 
-    /** Input source. */
-    private Scanner _input;
+    /** Number of occurrences of a position that ends the game in a tie,
+     *  or <= 0 for no repetition rule. */
+    private int _repetitionLimit;
+
+    /** Destination of game records, or null if absent. */
+    private GameRecorder _recorder;
+    /** Record of the game in progress, or null if none. */
+    private GameRecord _record;
+
+    /** Lines of the standard input not yet returned by readLine. */
+    private final BlockingQueue<String> _input = new LinkedBlockingQueue<>();
+    /** The thread that fills _input, or null if not yet started. */
+    private Thread _reader;
+    /** Queued after the last line of input.  Compared by identity, so
+     *  that no line of input can be mistaken for it. */
+    private static final String END_OF_INPUT = new String("");
+    /** The AI choosing a move, or null. */
+    private Player _thinking;
 
     /** Reporter for messages and errors. */
     private Reporter _reporter;
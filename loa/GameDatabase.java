@@ -0,0 +1,537 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+/** A read-only index of the positions reached in a game record file (as
+ *  written by GameRecorder or GameRecord.main), answering "which games
+ *  reached this position, at which ply, and how did they end?".  The
+ *  index is a file of (position key, game, ply, result) entries sorted
+ *  by key, stored beside the record file with the suffix
+ *  SUFFIX and mapped into memory.  A sparse fence of every
+ *  FENCE_INTERVAL-th key, kept on the heap, narrows each lookup to one
+ *  small block of the file, so a lookup touches a page or two however
+ *  many games there are.  Games are numbered from 0 in file order, and
+ *  the index also holds the offset of each game in the record file.
+ *  A position's key is that of its canonical form, Symmetry.key(board,
+ *  false), so that a query also finds the reflections and rotations of
+ *  the position (with the same side to move) that the games reached.
+ *
+ *  Index layout (big-endian): a 24-byte header holding MAGIC, VERSION,
+ *  the number of games, a reserved word, and the number of entries as a
+ *  long; the offset of each game as a long; and ENTRY_SIZE-byte entries,
+ *  each a long position key, an int game number, a short ply, a byte
+ *  result (as in GameRecord), and a reserved byte.  Entries with equal
+ *  keys are in order of game and ply.
+ *  @author Manaal
+ */
+class GameDatabase {
+
+    /** First word of every index file ("LOAI"). */
+    static final int MAGIC = 0x4c4f4149;
+    /** Format version written and accepted. */
+    static final int VERSION = 2;
+    /** Suffix added to the name of a record file to name its index. */
+    static final String SUFFIX = ".idx";
+    /** Size of the index file header in bytes. */
+    static final int HEADER_SIZE = 24;
+    /** Size of one entry in bytes. */
+    static final int ENTRY_SIZE = 16;
+    /** Number of entries between keys in the fence. */
+    static final int FENCE_INTERVAL = 1024;
+
+    /** One occurrence of a position in a game. */
+    static class Hit {
+        /** An occurrence of a position at PLY of game GAME, which ended
+         *  with RESULT. */
+        Hit(int game, int ply, int result) {
+            this.game = game;
+            this.ply = ply;
+            this.result = result;
+        }
+
+        /** Game number. */
+        final int game;
+        /** Number of moves made in the game before the position. */
+        final int ply;
+        /** Result of the game, as in GameRecord. */
+        final int result;
+    }
+
+    /** The database of the games in the record file named NAME, whose
+     *  index has been built (see index).  Throws IOException if either
+     *  cannot be read or the index is not an index file. */
+    static GameDatabase open(String name) throws IOException {
+        try (FileChannel chan = FileChannel.open(Paths.get(name + SUFFIX),
+                                                 StandardOpenOption.READ)) {
+            MappedByteBuffer header =
+                chan.map(FileChannel.MapMode.READ_ONLY, 0,
+                         Math.min(chan.size(), HEADER_SIZE));
+            if (chan.size() < HEADER_SIZE || header.getInt(0) != MAGIC
+                || header.getInt(4) != VERSION) {
+                throw new IOException("not a game index: " + name + SUFFIX);
+            }
+            int games = header.getInt(8);
+            long entries = header.getLong(16);
+            long start = HEADER_SIZE + 8L * games;
+            if (chan.size() != start + entries * ENTRY_SIZE) {
+                throw new IOException("not a game index: " + name + SUFFIX);
+            }
+            return new GameDatabase(name, chan, games, entries);
+        }
+    }
+
+    /** A database of the record file NAME, with GAMES games and ENTRIES
+     *  entries in the index open on CHAN. */
+    private GameDatabase(String name, FileChannel chan, int games,
+                         long entries) throws IOException {
+        _name = name;
+        _games = games;
+        _size = entries;
+        _offsets = chan.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                            8L * games);
+        long start = HEADER_SIZE + 8L * games;
+        int segments = (int) ((entries + SEGMENT_ENTRIES - 1)
+                              / SEGMENT_ENTRIES);
+        _segments = new MappedByteBuffer[segments];
+        for (int s = 0; s < segments; s += 1) {
+            long first = (long) s * SEGMENT_ENTRIES;
+            long n = Math.min(SEGMENT_ENTRIES, entries - first);
+            _segments[s] = chan.map(FileChannel.MapMode.READ_ONLY,
+                                    start + first * ENTRY_SIZE,
+                                    n * ENTRY_SIZE);
+        }
+        _fence = new long[(int) ((entries + FENCE_INTERVAL - 1)
+                                 / FENCE_INTERVAL)];
+        for (int f = 0; f < _fence.length; f += 1) {
+            _fence[f] = key((long) f * FENCE_INTERVAL);
+        }
+    }
+
+    /** Return the number of games. */
+    int games() {
+        return _games;
+    }
+
+    /** Return the number of positions indexed. */
+    long size() {
+        return _size;
+    }
+
+    /** Return every occurrence of the positions whose key is KEY, in
+     *  order of game and ply. */
+    List<Hit> find(long key) {
+        ArrayList<Hit> result = new ArrayList<>();
+        for (long k = first(key); k < _size && key(k) == key; k += 1) {
+            MappedByteBuffer segment = segment(k);
+            int p = offset(k);
+            result.add(new Hit(segment.getInt(p + 8),
+                               segment.getChar(p + 12),
+                               segment.get(p + 14)));
+        }
+        return result;
+    }
+
+    /** Return the number of occurrences of the positions whose key is
+     *  KEY. */
+    long count(long key) {
+        long first = first(key), end = first;
+        while (end < _size && key(end) == key) {
+            end += 1;
+        }
+        return end - first;
+    }
+
+    /** Return game number GAME. */
+    GameRecord game(int game) throws IOException {
+        try (FileChannel chan = FileChannel.open(Paths.get(_name),
+                                                 StandardOpenOption.READ)) {
+            chan.position(_offsets.getLong(8 * game));
+            return GameRecord.read(new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(chan))));
+        }
+    }
+
+    /** Return the index of the first entry whose key is >= KEY.  The
+     *  fence picks the one block that can hold it, and a binary search
+     *  of that block finds it. */
+    private long first(long key) {
+        int lo = 0, hi = _fence.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_fence[mid] < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        if (lo == 0) {
+            return 0;
+        }
+        long low = (long) (lo - 1) * FENCE_INTERVAL,
+            high = Math.min((long) lo * FENCE_INTERVAL, _size);
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (key(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /** Return the position key of entry K. */
+    private long key(long k) {
+        return segment(k).getLong(offset(k));
+    }
+
+    /** Return the mapped segment holding entry K. */
+    private MappedByteBuffer segment(long k) {
+        return _segments[(int) (k / SEGMENT_ENTRIES)];
+    }
+
+    /** Return the offset of entry K in its segment. */
+    private static int offset(long k) {
+        return (int) (k % SEGMENT_ENTRIES) * ENTRY_SIZE;
+    }
+
+    /** Build the index of the record file named NAME, replaying the games
+     *  in runs of RUN_GAMES games on all available processors.  Each run
+     *  is sorted by key in memory and written to a temporary file, and
+     *  the runs are then merged into the index.  Returns the number of
+     *  positions indexed. */
+    static long index(String name) throws IOException {
+        long[] offsets = scan(name);
+        int runs = (offsets.length + RUN_GAMES - 1) / RUN_GAMES;
+        Path dir = Paths.get(name).toAbsolutePath().getParent();
+        Path[] runFiles = new Path[runs];
+        long[] counts = new long[runs];
+        try {
+            for (int r = 0; r < runs; r += 1) {
+                runFiles[r] = Files.createTempFile(dir, "loa", ".run");
+            }
+            IntStream.range(0, runs).parallel().forEach(r -> {
+                try {
+                    counts[r] = writeRun(name, offsets, r, runFiles[r]);
+                } catch (IOException excp) {
+                    throw new UncheckedIOException(excp);
+                }
+            });
+            return merge(name + SUFFIX, offsets, runFiles,
+                         Arrays.stream(counts).sum());
+        } catch (UncheckedIOException excp) {
+            throw excp.getCause();
+        } finally {
+            for (Path run : runFiles) {
+                if (run != null) {
+                    Files.deleteIfExists(run);
+                }
+            }
+        }
+    }
+
+    /** Return the offsets of the games in the record file named NAME.
+     *  Throws IOException if it is not a record file. */
+    private static long[] scan(String name) throws IOException {
+        long[] offsets = new long[INITIAL_GAMES];
+        int n = 0;
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(name)))) {
+            if (in.readInt() != GameRecord.MAGIC
+                || in.readInt() != GameRecord.VERSION) {
+                throw new IOException("not a record file: " + name);
+            }
+            long offset = 8;
+            for (GameRecord game = GameRecord.read(in); game != null;
+                 game = GameRecord.read(in)) {
+                if (n == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, 2 * n);
+                }
+                offsets[n] = offset;
+                n += 1;
+                offset += game.encodedSize();
+            }
+        } catch (EOFException excp) {
+            throw new IOException("not a record file: " + name);
+        }
+        return Arrays.copyOf(offsets, n);
+    }
+
+    /** Replay run R of the games of the record file NAME, whose games
+     *  start at OFFSETS, and write the entries of their positions, sorted,
+     *  to RUN as pairs of longs: the key, and the game, ply, and result
+     *  packed as by pack.  Return the number of entries. */
+    private static long writeRun(String name, long[] offsets, int r,
+                                 Path run) throws IOException {
+        int first = r * RUN_GAMES,
+            last = Math.min(offsets.length, first + RUN_GAMES);
+        long[] keys = new long[INITIAL_RUN], values = new long[INITIAL_RUN];
+        int n = 0;
+        try (FileChannel chan = FileChannel.open(Paths.get(name),
+                                                 StandardOpenOption.READ)) {
+            chan.position(offsets[first]);
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Channels.newInputStream(chan)));
+            for (int g = first; g < last; g += 1) {
+                GameRecord game = GameRecord.read(in);
+                Board board = game.start();
+                if (n + game.size() + 1 > keys.length) {
+                    int size = Math.max(2 * keys.length, n + game.size() + 1);
+                    keys = Arrays.copyOf(keys, size);
+                    values = Arrays.copyOf(values, size);
+                }
+                for (int ply = 0; ; ply += 1) {
+                    keys[n] = Symmetry.key(board, false);
+                    values[n] = pack(g, ply, game.result());
+                    n += 1;
+                    if (ply == game.size()) {
+                        break;
+                    }
+                    board.makeMove(game.move(ply));
+                }
+            }
+        }
+        sort(keys, values, n);
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(Files.newOutputStream(run)))) {
+            for (int i = 0; i < n; i += 1) {
+                out.writeLong(keys[i]);
+                out.writeLong(values[i]);
+            }
+        }
+        return n;
+    }
+
+    /** Write the index file OUT for the games at OFFSETS from the sorted
+     *  RUNS, which hold TOTAL entries in all.  Return TOTAL. */
+    private static long merge(String out, long[] offsets, Path[] runs,
+                              long total) throws IOException {
+        PriorityQueue<Run> queue = new PriorityQueue<>();
+        try (DataOutputStream index = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(out)))) {
+            index.writeInt(MAGIC);
+            index.writeInt(VERSION);
+            index.writeInt(offsets.length);
+            index.writeInt(0);
+            index.writeLong(total);
+            for (long offset : offsets) {
+                index.writeLong(offset);
+            }
+            for (Path run : runs) {
+                Run reader = new Run(run);
+                if (reader.next()) {
+                    queue.add(reader);
+                }
+            }
+            while (!queue.isEmpty()) {
+                Run reader = queue.poll();
+                index.writeLong(reader.key);
+                index.writeInt((int) (reader.value >>> GAME_SHIFT));
+                index.writeShort((int) (reader.value >>> PLY_SHIFT));
+                index.writeByte((int) reader.value);
+                index.writeByte(0);
+                if (reader.next()) {
+                    queue.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } finally {
+            for (Run reader : queue) {
+                reader.close();
+            }
+        }
+        return total;
+    }
+
+    /** A reader of the entries of one sorted run, ordered by its current
+     *  entry. */
+    private static class Run implements Comparable<Run> {
+        /** A reader of the run in the file FILE. */
+        Run(Path file) throws IOException {
+            _in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)));
+        }
+
+        /** Read the next entry into key and value, returning false if
+         *  there is none. */
+        boolean next() throws IOException {
+            try {
+                key = _in.readLong();
+                value = _in.readLong();
+                return true;
+            } catch (EOFException excp) {
+                return false;
+            }
+        }
+
+        /** Close the file. */
+        void close() throws IOException {
+            _in.close();
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            int c = Long.compare(key, other.key);
+            return c != 0 ? c : Long.compare(value, other.value);
+        }
+
+        /** Position key of the current entry. */
+        long key;
+        /** Game, ply, and result of the current entry, as from pack. */
+        long value;
+        /** The run file. */
+        private final DataInputStream _in;
+    }
+
+    /** Return GAME, PLY, and RESULT packed into a long that orders by
+     *  game and then ply. */
+    private static long pack(int game, int ply, int result) {
+        return (long) game << GAME_SHIFT | (long) ply << PLY_SHIFT | result;
+    }
+
+    /** Sort KEYS[0 .. N-1] into ascending (signed) order, moving
+     *  VALUES[0 .. N-1] with them, by a radix sort on each byte of the
+     *  keys in turn.  The sort is stable, so entries with equal keys keep
+     *  the order of game and ply in which they were generated. */
+    private static void sort(long[] keys, long[] values, int n) {
+        long[] keys2 = new long[n], values2 = new long[n];
+        int[] counts = new int[RADIX + 1];
+        for (int shift = 0; shift < Long.SIZE; shift += RADIX_BITS) {
+            long flip = shift == Long.SIZE - RADIX_BITS ? Long.MIN_VALUE : 0;
+            Arrays.fill(counts, 0);
+            for (int i = 0; i < n; i += 1) {
+                counts[digit(keys[i] ^ flip, shift) + 1] += 1;
+            }
+            for (int d = 0; d < RADIX; d += 1) {
+                counts[d + 1] += counts[d];
+            }
+            for (int i = 0; i < n; i += 1) {
+                int j = counts[digit(keys[i] ^ flip, shift)]++;
+                keys2[j] = keys[i];
+                values2[j] = values[i];
+            }
+            long[] t = keys;
+            keys = keys2;
+            keys2 = t;
+            t = values;
+            values = values2;
+            values2 = t;
+        }
+    }
+
+    /** Return the RADIX_BITS-bit digit of KEY starting at bit SHIFT. */
+    private static int digit(long key, int shift) {
+        return (int) (key >>> shift) & (RADIX - 1);
+    }
+
+    /** Build or query an index, as directed by ARGS:
+     *      index RECORDS
+     *  builds the index of the record file RECORDS;
+     *      find RECORDS [MOVE...]
+     *  prints how often the position reached from the initial position by
+     *  MOVE..., or one equivalent to it, occurs in the games of RECORDS,
+     *  how those games ended, and the first few occurrences. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 2 && args[0].equals("index")) {
+                long start = System.nanoTime();
+                long n = index(args[1]);
+                System.out.printf("%d positions indexed in %.1f sec.%n", n,
+                                  (System.nanoTime() - start) * 1e-9);
+                return;
+            } else if (args.length >= 2 && args[0].equals("find")) {
+                GameDatabase db = open(args[1]);
+                Board board = new Board();
+                for (int i = 2; i < args.length; i += 1) {
+                    Move move = Move.mv(args[i]);
+                    if (move == null || !board.isLegal(move)) {
+                        System.err.printf("Error: illegal move: %s%n",
+                                          args[i]);
+                        System.exit(1);
+                    }
+                    board.makeMove(move);
+                }
+                long start = System.nanoTime();
+                List<Hit> hits = db.find(Symmetry.key(board, false));
+                long nanos = System.nanoTime() - start;
+                int[] results = new int[RESULT_NAMES.length];
+                for (Hit hit : hits) {
+                    results[hit.result] += 1;
+                }
+                System.out.printf("%d occurrences in %d games "
+                                  + "(%.3f msec):", hits.size(), db.games(),
+                                  nanos * 1e-6);
+                for (int r = 0; r < results.length; r += 1) {
+                    System.out.printf(" %d %s", results[r], RESULT_NAMES[r]);
+                }
+                System.out.println();
+                for (int i = 0; i < hits.size() && i < SHOWN_HITS; i += 1) {
+                    System.out.printf("  game %d, ply %d%n",
+                                      hits.get(i).game, hits.get(i).ply);
+                }
+                return;
+            }
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+        System.err.println("Usage: java loa.GameDatabase index RECORDS");
+        System.err.println("       java loa.GameDatabase find RECORDS "
+                           + "[MOVE...]");
+        System.exit(1);
+    }
+
+    /** Names of the results, indexed as in GameRecord. */
+    private static final String[] RESULT_NAMES = {
+        "black wins", "ties", "white wins", "unfinished"
+    };
+    /** Number of occurrences listed by main. */
+    private static final int SHOWN_HITS = 10;
+    /** Number of entries in each mapped segment of an index. */
+    private static final long SEGMENT_ENTRIES = 1L << 26;
+    /** Number of games replayed and sorted together in index. */
+    private static final int RUN_GAMES = 1 << 14;
+    /** Initial sizes of the arrays of game offsets and run entries. */
+    private static final int INITIAL_GAMES = 1024,
+        INITIAL_RUN = RUN_GAMES * Board.DEFAULT_MOVE_LIMIT;
+    /** Positions of the game and ply in a packed entry value. */
+    private static final int GAME_SHIFT = 24, PLY_SHIFT = 8;
+    /** Bits per digit of the radix sort, and the number of digits. */
+    private static final int RADIX_BITS = 8, RADIX = 1 << RADIX_BITS;
+
+    /** Name of the record file. */
+    private final String _name;
+    /** Number of games. */
+    private final int _games;
+    /** Number of entries. */
+    private final long _size;
+    /** Mapped offsets of the games. */
+    private final MappedByteBuffer _offsets;
+    /** Mapped entries, SEGMENT_ENTRIES to a segment. */
+    private final MappedByteBuffer[] _segments;
+    /** Key of every FENCE_INTERVAL-th entry. */
+    private final long[] _fence;
+}
@@ -0,0 +1,344 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import static loa.Piece.*;
+import static loa.Square.*;
+
+/** The record of one game: its initial position, move limit, moves, and
+ *  result.  Records are written in a compact binary form (see
+ *  GameRecorder) or as the text commands of a game log, and read back
+ *  from either.
+ *
+ *  Record layout (big-endian): a byte holding the result (bits 0-1:
+ *  BLACK_WINS, TIE, WHITE_WINS, or UNFINISHED) and the side to move
+ *  first (bit 2, set for white); the move limit and the number of moves
+ *  made before the initial position, as shorts; the occupancy masks of
+ *  black and of white as longs; the number of moves as a short; and the
+ *  moves, two to each three bytes, each packed into twelve bits as the
+ *  from square's index followed by the to square's (as in Move.code(),
+ *  without the capture flag).  A record file is MAGIC and VERSION
+ *  followed by any number of records.
+ *  @author Manaal
+ */
+class GameRecord {
+
+    /** First word of every record file ("LOAG"). */
+    static final int MAGIC = 0x4c4f4147;
+    /** Format version written and accepted. */
+    static final int VERSION = 2;
+    /** Results. */
+    static final int BLACK_WINS = 0, TIE = 1, WHITE_WINS = 2, UNFINISHED = 3;
+    /** Bits in a packed move. */
+    static final int MOVE_BITS = 12;
+    /** Mask selecting a packed move from a move code. */
+    static final int MOVE_MASK = (1 << MOVE_BITS) - 1;
+
+    /** An unfinished game with no moves starting from the current
+     *  position, number of moves made, and move limit of BOARD. */
+    GameRecord(Board board) {
+        this(board.occupied(BP), board.occupied(WP), board.turn(),
+             board.movesMade(), board.moveLimit());
+    }
+
+    /** An unfinished game with no moves, starting from the position in
+     *  which black occupies BLACK and white WHITE, with TURN to move,
+     *  after MOVESMADE moves, and with move limit LIMIT. */
+    GameRecord(long black, long white, Piece turn, int movesMade,
+               int limit) {
+        _black = black;
+        _white = white;
+        _turn = turn;
+        _movesMade = movesMade;
+        _limit = limit;
+        _result = UNFINISHED;
+    }
+
+    /** Add the move whose code is CODE. */
+    void add(int code) {
+        if (_size == _moves.length) {
+            _moves = Arrays.copyOf(_moves, 2 * _size);
+        }
+        _moves[_size] = (short) (code & MOVE_MASK);
+        _size += 1;
+    }
+
+    /** Remove the last N moves, or all of them if there are fewer. */
+    void undo(int n) {
+        _size = Math.max(0, _size - n);
+    }
+
+    /** Set the move limit to LIMIT. */
+    void setLimit(int limit) {
+        _limit = limit;
+    }
+
+    /** Record that the game ended with WINNER the winner (EMP for a
+     *  tie). */
+    void finish(Piece winner) {
+        _result = winner == BP ? BLACK_WINS : winner == WP ? WHITE_WINS
+            : TIE;
+    }
+
+    /** Return the number of moves. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the code of move K. */
+    int move(int k) {
+        return _moves[k];
+    }
+
+    /** Return the result: BLACK_WINS, TIE, WHITE_WINS, or UNFINISHED. */
+    int result() {
+        return _result;
+    }
+
+    /** Return a new board in my initial position. */
+    Board start() {
+        return new Board(new BoardSnapshot(_black, _white, _turn,
+                                           _movesMade, _limit));
+    }
+
+    /** Return the length of my binary form in bytes. */
+    int encodedSize() {
+        return HEADER_SIZE + (_size * MOVE_BITS + 7) / 8;
+    }
+
+    /** Return my binary form. */
+    byte[] encode() {
+        byte[] data = new byte[encodedSize()];
+        data[0] = (byte) (_result | (_turn == WP ? WHITE_FIRST : 0));
+        putShort(data, 1, _limit);
+        putShort(data, 3, _movesMade);
+        putLong(data, 5, _black);
+        putLong(data, 13, _white);
+        putShort(data, 21, _size);
+        for (int k = 0, p = HEADER_SIZE; k < _size; k += 2, p += 3) {
+            int a = _moves[k], b = k + 1 < _size ? _moves[k + 1] : 0;
+            data[p] = (byte) (a >> 4);
+            data[p + 1] = (byte) ((a << 4) | (b >> 8));
+            if (k + 1 < _size) {
+                data[p + 2] = (byte) b;
+            }
+        }
+        return data;
+    }
+
+    /** Return the next record from IN, or null if IN is at its end. */
+    static GameRecord read(DataInputStream in) throws IOException {
+        int flags = in.read();
+        if (flags == -1) {
+            return null;
+        }
+        if ((flags & ~(WHITE_FIRST | RESULT_MASK)) != 0) {
+            throw new IOException("bad game record");
+        }
+        int limit = in.readShort(), movesMade = in.readUnsignedShort();
+        long black = in.readLong(), white = in.readLong();
+        GameRecord game = new GameRecord(black, white,
+                                         (flags & WHITE_FIRST) != 0
+                                         ? WP : BP, movesMade, limit);
+        game._result = flags & RESULT_MASK;
+        int n = in.readUnsignedShort();
+        byte[] packed = new byte[(n * MOVE_BITS + 7) / 8];
+        in.readFully(packed);
+        for (int k = 0, p = 0; k < n; k += 2, p += 3) {
+            int hi = packed[p] & 0xff, mid = packed[p + 1] & 0xff;
+            game.add(hi << 4 | mid >> 4);
+            if (k + 1 < n) {
+                game.add((mid & 0xf) << 8 | packed[p + 2] & 0xff);
+            }
+        }
+        return game;
+    }
+
+    /** Write me to OUT as the commands of a game log. */
+    void writeText(PrintStream out) {
+        Board start = start();
+        out.println("new");
+        if (!start.position().equals(new Board().position())) {
+            out.printf("load %s%n", start.position());
+        }
+        for (int k = 0; k < _size; k += 1) {
+            out.println(Move.mv(_moves[k]));
+        }
+    }
+
+    /** Call ACTION on each game in the file named NAME, which is either a
+     *  record file or a game log. */
+    static void forEach(String name, Consumer<GameRecord> action)
+        throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                 new BufferedInputStream(new FileInputStream(name)))) {
+            boolean binary;
+            try {
+                binary = in.readInt() == MAGIC && in.readInt() == VERSION;
+            } catch (EOFException excp) {
+                binary = false;
+            }
+            if (binary) {
+                for (GameRecord game = read(in); game != null;
+                     game = read(in)) {
+                    action.accept(game);
+                }
+                return;
+            }
+        } catch (EOFException excp) {
+            throw new IOException("truncated record file: " + name);
+        }
+        readText(name, action);
+    }
+
+    /** Call ACTION on each game in the game log named LOG, in order.
+     *  A game starts with a "new" or "load" command, or with a "set"
+     *  command that changes the position (each of which ends any game in
+     *  progress, unfinished), and ends when it is won or tied, or at the
+     *  end of the log.  Games with no moves, and commands that fail, are
+     *  ignored. */
+    static void readText(String log, Consumer<GameRecord> action)
+        throws IOException {
+        Board board = new Board();
+        GameRecord game = new GameRecord(board);
+        try (BufferedReader in = new BufferedReader(new FileReader(log))) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String[] words = line.trim().split("\\s+");
+                try {
+                    switch (words[0].toLowerCase()) {
+                    case "new":
+                        board.clear();
+                        game = emit(game, board, action);
+                        break;
+                    case "load":
+                        board.setPosition(
+                            line.trim().substring(words[0].length()));
+                        game = emit(game, board, action);
+                        break;
+                    case "set":
+                        board.set(sq(words[1]),
+                                  Piece.playerValueOf(words[2]),
+                                  Piece.playerValueOf(words[3]));
+                        game = emit(game, board, action);
+                        break;
+                    case "limit":
+                        board.setMoveLimit(Integer.parseInt(words[1]));
+                        game.setLimit(board.moveLimit());
+                        break;
+                    case "undo":
+                        if (board.movesRecorded() >= 2) {
+                            board.retract();
+                            board.retract();
+                            game.undo(2);
+                        }
+                        break;
+                    default:
+                        Move move = Move.mv(line.trim());
+                        if (move != null && board.winner() == null
+                            && board.isLegal(move)) {
+                            board.makeMove(move);
+                            game.add(move.code());
+                            if (board.winner() != null) {
+                                game.finish(board.winner());
+                                game = emit(game, board, action);
+                            }
+                        }
+                        break;
+                    }
+                } catch (IllegalArgumentException
+                         | ArrayIndexOutOfBoundsException excp) {
+                    continue;
+                }
+            }
+        }
+        emit(game, board, action);
+    }
+
+    /** Call ACTION on GAME if it has moves, and return a new record
+     *  starting from BOARD. */
+    private static GameRecord emit(GameRecord game, Board board,
+                                   Consumer<GameRecord> action) {
+        if (game.size() > 0) {
+            action.accept(game);
+        }
+        return new GameRecord(board);
+    }
+
+    /** Store the low 16 bits of X in DATA[P .. P+1]. */
+    private static void putShort(byte[] data, int p, int x) {
+        data[p] = (byte) (x >> 8);
+        data[p + 1] = (byte) x;
+    }
+
+    /** Store X in DATA[P .. P+7]. */
+    private static void putLong(byte[] data, int p, long x) {
+        for (int i = 7; i >= 0; i -= 1, x >>= 8) {
+            data[p + i] = (byte) x;
+        }
+    }
+
+    /** Convert between record files and game logs, as directed by ARGS:
+     *      pack OUT LOG...
+     *  writes the games in the logs (or record files) LOG... to the
+     *  record file OUT;
+     *      unpack RECORDS OUT
+     *  writes the games in the record file (or log) RECORDS to the game
+     *  log OUT. */
+    public static void main(String... args) {
+        try {
+            if (args.length >= 3 && args[0].equals("pack")) {
+                try (GameRecorder out = new GameRecorder(args[1])) {
+                    for (int i = 2; i < args.length; i += 1) {
+                        forEach(args[i], out::record);
+                    }
+                }
+                return;
+            } else if (args.length == 3 && args[0].equals("unpack")) {
+                try (PrintStream out = new PrintStream(args[2])) {
+                    forEach(args[1], game -> game.writeText(out));
+                }
+                return;
+            }
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+        System.err.println("Usage: java loa.GameRecord pack OUT LOG...");
+        System.err.println("       java loa.GameRecord unpack RECORDS OUT");
+        System.exit(1);
+    }
+
+    /** Size of a record without its moves, in bytes. */
+    private static final int HEADER_SIZE = 23;
+    /** Bit of the first byte of a record set when white moves first. */
+    private static final int WHITE_FIRST = 4;
+    /** Mask selecting the result from the first byte of a record. */
+    private static final int RESULT_MASK = 3;
+
+    /** Occupancy masks of black and white in the initial position. */
+    private final long _black, _white;
+    /** Side to move in the initial position. */
+    private final Piece _turn;
+    /** Number of moves made before the initial position. */
+    private final int _movesMade;
+    /** Move limit. */
+    private int _limit;
+    /** Result. */
+    private int _result;
+    /** Packed moves: _moves[0 .. _size-1]. */
+    private short[] _moves = new short[Board.DEFAULT_MOVE_LIMIT];
+    /** Number of moves. */
+    private int _size;
+}
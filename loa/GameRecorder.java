@@ -0,0 +1,96 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/** Writes GameRecords to a record file on a thread of its own, so that
+ *  games never wait for the disk.  record() encodes a game and queues
+ *  it; the writer thread takes whatever games have accumulated, writes
+ *  them as one batch, and flushes only when the queue is empty, so that
+ *  a burst of games costs one write rather than one per game (or, as
+ *  with text logs, one per move).
+ *  @author Manaal
+ */
+class GameRecorder implements AutoCloseable {
+
+    /** A recorder writing to a new record file named NAME. */
+    GameRecorder(String name) throws IOException {
+        _out = new DataOutputStream(
+                   new BufferedOutputStream(new FileOutputStream(name),
+                                            BUFFER_SIZE));
+        _out.writeInt(GameRecord.MAGIC);
+        _out.writeInt(GameRecord.VERSION);
+        _writer = new Thread(this::write, "game recorder");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    /** Queue GAME, as it is now, to be written. */
+    void record(GameRecord game) {
+        _queue.add(game.encode());
+    }
+
+    /** Write all queued games and close the file.  Throws IOException if
+     *  any write failed. */
+    @Override
+    public void close() throws IOException {
+        _queue.add(END);
+        try {
+            _writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+        if (_error != null) {
+            throw _error;
+        }
+    }
+
+    /** Body of the writer thread: write batches of games until END,
+     *  then close the file. */
+    private void write() {
+        ArrayList<byte[]> batch = new ArrayList<>();
+        try (DataOutputStream out = _out) {
+            while (true) {
+                batch.add(_queue.take());
+                _queue.drainTo(batch, MAX_BATCH);
+                for (byte[] game : batch) {
+                    if (game == END) {
+                        return;
+                    }
+                    out.write(game);
+                }
+                batch.clear();
+                if (_queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException excp) {
+            _error = excp;
+        } catch (InterruptedException excp) {
+            _error = new IOException("game recorder interrupted");
+        }
+    }
+
+    /** Size of the output buffer in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+    /** Most games taken from the queue at once. */
+    private static final int MAX_BATCH = 1024;
+    /** Queued to tell the writer thread to finish. */
+    private static final byte[] END = new byte[0];
+
+    /** Encoded games waiting to be written. */
+    private final BlockingQueue<byte[]> _queue = new LinkedBlockingQueue<>();
+    /** The record file. */
+    private final DataOutputStream _out;
+    /** The thread that writes the file. */
+    private final Thread _writer;
+    /** The first error in writing, or null. */
+    private volatile IOException _error;
+}
@@ -0,0 +1,158 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.util.Arrays;
+
+import static java.lang.System.arraycopy;
+import static loa.Square.*;
+
+/** Precomputed tables describing the geometry of the board, indexed by
+ *  Square.index() and by the direction numbers of Square.moveDest, so
+ *  that Board and the search can walk lines and neighborhoods with
+ *  array lookups instead of creating and bounds-checking Squares.
+ *  @author Manaal
+ */
+final class Geometry {
+
+    /** Number of distinct lines (rows, columns, and both diagonals,
+     *  including the one-square diagonals in the corners). */
+    static final int NUM_LINES = 2 * BOARD_SIZE + 2 * (2 * BOARD_SIZE - 1);
+
+    /** COL[S] and ROW[S] are the column and row of square index S. */
+    static final int[] COL = new int[NUM_SQUARES],
+        ROW = new int[NUM_SQUARES];
+    /** RAYS[S][D] lists the squares reached from square S by 1, 2, ...
+     *  steps in direction D, nearest first. */
+    static final int[][][] RAYS = new int[NUM_SQUARES][8][];
+    /** NEIGHBORS[S] lists the squares adjacent to S. */
+    static final int[][] NEIGHBORS = new int[NUM_SQUARES][];
+    /** AXIS[D] numbers the line direction (0-3) of direction D, so that
+     *  opposite directions have the same axis. */
+    static final int[] AXIS = new int[8];
+    /** OPPOSITE[D] is the direction opposite to D. */
+    static final int[] OPPOSITE = new int[8];
+    /** LINE[S][A] is the number (0 .. NUM_LINES-1) of the line along
+     *  axis A through square S. */
+    static final int[][] LINE = new int[NUM_SQUARES][4];
+    /** LINE_SQUARES[L] lists the squares of line L, starting from an
+     *  edge of the board. */
+    static final int[][] LINE_SQUARES = new int[NUM_LINES][];
+    /** LINE_POS[S][A] is the position of square S in
+     *  LINE_SQUARES[LINE[S][A]]. */
+    static final int[][] LINE_POS = new int[NUM_SQUARES][4];
+
+    /** Return the direction from square index FROM to square index TO,
+     *  or -1 if they are equal or not on a common line. */
+    static int direction(int from, int to) {
+        return DIRECTION[from * NUM_SQUARES + to];
+    }
+
+    /** Return the line through square index S in direction DIR. */
+    static int line(int s, int dir) {
+        return LINE[s][AXIS[dir]];
+    }
+
+    /** Return the bit mask of square index S. */
+    static long bit(int s) {
+        return 1L << s;
+    }
+
+    /** Return the squares in the mask SQUARES together with all squares
+     *  adjacent to one of them. */
+    static long grow(long squares) {
+        long vertical = squares | (squares << BOARD_SIZE)
+            | (squares >>> BOARD_SIZE);
+        return vertical | ((vertical << 1) & ~FIRST_COLUMN)
+            | ((vertical >>> 1) & ~LAST_COLUMN);
+    }
+
+    /** Not instantiable. */
+    private Geometry() {
+    }
+
+    /** Masks of the squares in the first and last columns. */
+    private static final long FIRST_COLUMN, LAST_COLUMN;
+
+    /** DIRECTION[FROM * NUM_SQUARES + TO] is direction(FROM, TO). */
+    private static final byte[] DIRECTION =
+        new byte[NUM_SQUARES * NUM_SQUARES];
+
+    static {
+        Square center = sq(BOARD_SIZE / 2, BOARD_SIZE / 2);
+        int axes = 0;
+        for (int d = 0; d < 8; d += 1) {
+            AXIS[d] = -1;
+            for (int e = 0; e < 8; e += 1) {
+                if (center.moveDest(d, 1).moveDest(e, 1) == center) {
+                    OPPOSITE[d] = e;
+                    if (e < d) {
+                        AXIS[d] = AXIS[e];
+                    }
+                }
+            }
+            if (AXIS[d] < 0) {
+                AXIS[d] = axes++;
+            }
+        }
+
+        Arrays.fill(DIRECTION, (byte) -1);
+        for (int i = 0; i < NUM_SQUARES; i += 1) {
+            Square from = sq(i % BOARD_SIZE, i / BOARD_SIZE);
+            int s = from.index();
+            assert s == from.col() + from.row() * BOARD_SIZE;
+            COL[s] = from.col();
+            ROW[s] = from.row();
+            int neighbors = 0;
+            for (int d = 0; d < 8; d += 1) {
+                int n;
+                for (n = 0; from.moveDest(d, n + 1) != null; n += 1) {
+                    continue;
+                }
+                RAYS[s][d] = new int[n];
+                for (int k = 0; k < n; k += 1) {
+                    int to = from.moveDest(d, k + 1).index();
+                    RAYS[s][d][k] = to;
+                    DIRECTION[s * NUM_SQUARES + to] = (byte) d;
+                }
+                neighbors += n > 0 ? 1 : 0;
+            }
+            NEIGHBORS[s] = new int[neighbors];
+            for (int d = 0, k = 0; d < 8; d += 1) {
+                if (RAYS[s][d].length > 0) {
+                    NEIGHBORS[s][k++] = RAYS[s][d][0];
+                }
+            }
+        }
+
+        long first = 0, last = 0;
+        for (int s = 0; s < NUM_SQUARES; s += 1) {
+            first |= COL[s] == 0 ? bit(s) : 0;
+            last |= COL[s] == BOARD_SIZE - 1 ? bit(s) : 0;
+        }
+        FIRST_COLUMN = first;
+        LAST_COLUMN = last;
+
+        int lines = 0;
+        for (int d = 0; d < 8; d += 1) {
+            if (OPPOSITE[d] < d) {
+                continue;
+            }
+            for (int s = 0; s < NUM_SQUARES; s += 1) {
+                if (RAYS[s][OPPOSITE[d]].length == 0) {
+                    int[] ray = RAYS[s][d];
+                    LINE_SQUARES[lines] = new int[ray.length + 1];
+                    LINE_SQUARES[lines][0] = s;
+                    arraycopy(ray, 0, LINE_SQUARES[lines], 1, ray.length);
+                    for (int k = 0; k <= ray.length; k += 1) {
+                        int t = LINE_SQUARES[lines][k];
+                        LINE[t][AXIS[d]] = lines;
+                        LINE_POS[t][AXIS[d]] = k;
+                    }
+                    lines += 1;
+                }
+            }
+        }
+        assert lines == NUM_LINES;
+    }
+}
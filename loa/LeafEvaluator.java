@@ -0,0 +1,291 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static loa.Geometry.*;
+import static loa.Piece.*;
+import static loa.Square.*;
+
+/** Scores many positions at once from their occupancy masks, for the
+ *  leaves of a search.  Positions are added to buffers that hold the
+ *  masks of all the black pieces in one array and of all the white
+ *  pieces in another, and evaluate() then computes every position's
+ *  features in one pass over the arrays.
+ *
+ *  The features of each side are its number of pieces; the spread of
+ *  its pieces about their center of mass (the sum of the squared
+ *  distances), found from the sums of the columns, rows, and squared
+ *  distances from a corner, each of which is a weighted count of the
+ *  pieces in a few fixed masks; and its Euler number, the number of
+ *  regions less the number of holes, found by counting the 2x2 quads of
+ *  squares holding one, three, or two diagonal pieces.  All of these
+ *  are counts of set bits in masks, so they vectorize: create() returns
+ *  a VectorLeafEvaluator, which computes them with the incubating
+ *  jdk.incubator.vector API, when it has been compiled (make vector)
+ *  and that module is present (java --add-modules jdk.incubator.vector),
+ *  and a LeafEvaluator, which computes them one position at a time,
+ *  otherwise.  The two give identical scores.
+ *  @author Manaal
+ */
+class LeafEvaluator {
+
+    /** Most positions held at once. */
+    static final int CAPACITY = Board.MAX_MOVES;
+
+    /** Return the fastest available evaluator. */
+    static LeafEvaluator create() {
+        try {
+            return (LeafEvaluator) Class.forName("loa.VectorLeafEvaluator")
+                .getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError excp) {
+            return new LeafEvaluator();
+        }
+    }
+
+    /** Return true iff I compute features with vector instructions. */
+    boolean vectorized() {
+        return false;
+    }
+
+    /** Remove all positions. */
+    void clear() {
+        _size = 0;
+    }
+
+    /** Return the number of positions held. */
+    int size() {
+        return _size;
+    }
+
+    /** Add the position in which black occupies the squares in BLACK and
+     *  white those in WHITE, both non-empty, and return its index. */
+    int add(long black, long white) {
+        _black[_size] = black;
+        _white[_size] = white;
+        return _size++;
+    }
+
+    /** Compute the scores of all positions held. */
+    void evaluate() {
+        features(0, _size);
+        for (int i = 0; i < _size; i += 1) {
+            _scores[i] = (int) (EULER_WEIGHT
+                                * (_euler[BLACK][i] - _euler[WHITE][i])
+                                + (spread(BLACK, i) - spread(WHITE, i))
+                                / SPREAD_SCALE);
+        }
+    }
+
+    /** Return the score, positive favoring white, of position I as of the
+     *  last evaluate(). */
+    int score(int i) {
+        return _scores[i];
+    }
+
+    /** Compute the features of positions FROM .. TO-1.  Each feature
+     *  is computed by a loop over all the positions, which the compiler
+     *  can turn into vector instructions of its own. */
+    void features(int from, int to) {
+        for (int k = BLACK; k <= WHITE; k += 1) {
+            long[] pieces = k == BLACK ? _black : _white;
+            weightedCount(pieces, from, to, ALL, _count[k]);
+            weightedCount(pieces, from, to, COL_BITS, _sumCols[k]);
+            weightedCount(pieces, from, to, ROW_BITS, _sumRows[k]);
+            weightedCount(pieces, from, to, SQUARE_BITS, _sumSquares[k]);
+            euler(pieces, from, to, _euler[k]);
+        }
+    }
+
+    /** Set RESULT[I], for FROM <= I < TO, to the sum over B of 2**B times
+     *  the number of pieces of PIECES[I] in MASKS[B]. */
+    void weightedCount(long[] pieces, int from, int to, long[] masks,
+                       long[] result) {
+        Arrays.fill(result, from, to, 0L);
+        for (int b = 0; b < masks.length; b += 1) {
+            long mask = masks[b];
+            for (int i = from; i < to; i += 1) {
+                result[i] += (long) Long.bitCount(pieces[i] & mask) << b;
+            }
+        }
+    }
+
+    /** Set RESULT[I], for FROM <= I < TO, to the Euler number of the
+     *  pieces in PIECES[I]. */
+    void euler(long[] pieces, int from, int to, long[] result) {
+        for (int i = from; i < to; i += 1) {
+            long occupied = pieces[i];
+            long a = occupied & QUAD_CORNERS,
+                b = (occupied >>> 1) & QUAD_CORNERS,
+                c = (occupied >>> BOARD_SIZE) & QUAD_CORNERS,
+                d = (occupied >>> (BOARD_SIZE + 1)) & QUAD_CORNERS;
+            long odd = a ^ b ^ c ^ d, pairs = (a & b) | (c & d);
+            long ones = Long.bitCount(odd & ~pairs)
+                + Long.bitCount((occupied ^ (occupied >>> 1))
+                                & EDGE_ROW_PAIRS)
+                + Long.bitCount((occupied ^ (occupied >>> BOARD_SIZE))
+                                & EDGE_COLUMN_PAIRS)
+                + Long.bitCount(occupied & CORNERS);
+            long threes = Long.bitCount(odd & pairs);
+            long diagonals =
+                Long.bitCount((a & d & ~b & ~c) | (b & c & ~a & ~d));
+            result[i] = (ones - threes - 2 * diagonals) >> 2;
+        }
+    }
+
+    /** Return the sum of the squared distances of the pieces of side K in
+     *  position I from their center of mass. */
+    private long spread(int k, int i) {
+        long n = _count[k][i];
+        long cols = _sumCols[k][i], rows = _sumRows[k][i];
+        return (n * _sumSquares[k][i] - cols * cols - rows * rows) / n;
+    }
+
+    /** Indices of the sides in the feature arrays. */
+    static final int BLACK = 0, WHITE = 1;
+    /** Bits needed for a column or row number. */
+    static final int COORD_BITS = 3;
+    /** COL_BITS[B] and ROW_BITS[B] hold the squares whose column (row)
+     *  number has bit B set. */
+    static final long[] COL_BITS = new long[COORD_BITS],
+        ROW_BITS = new long[COORD_BITS];
+    /** A single mask of all squares, for counting pieces. */
+    static final long[] ALL = { -1L };
+    /** SQUARE_BITS[B] holds the squares whose squared distance from
+     *  square a1, COL**2 + ROW**2, has bit B set. */
+    static final long[] SQUARE_BITS = new long[7];
+    /** The squares at the lower left of a 2x2 quad on the board. */
+    static final long QUAD_CORNERS;
+    /** The squares of the bottom and top rows other than the last
+     *  column: the left halves of the quads that hang off the board by a
+     *  row. */
+    static final long EDGE_ROW_PAIRS;
+    /** The squares of the first and last columns other than the top
+     *  row: the lower halves of the quads that hang off the board by a
+     *  column. */
+    static final long EDGE_COLUMN_PAIRS;
+    /** The corner squares, each alone in a quad that hangs off the board
+     *  by a row and a column. */
+    static final long CORNERS;
+
+    static {
+        long quads = 0, rowPairs = 0, colPairs = 0, corners = 0;
+        for (int s = 0; s < NUM_SQUARES; s += 1) {
+            int c = COL[s], r = ROW[s];
+            for (int b = 0; b < COORD_BITS; b += 1) {
+                COL_BITS[b] |= ((c >> b) & 1) != 0 ? bit(s) : 0;
+                ROW_BITS[b] |= ((r >> b) & 1) != 0 ? bit(s) : 0;
+            }
+            for (int b = 0; b < SQUARE_BITS.length; b += 1) {
+                SQUARE_BITS[b] |= (((c * c + r * r) >> b) & 1) != 0
+                    ? bit(s) : 0;
+            }
+            boolean lastCol = c == BOARD_SIZE - 1,
+                lastRow = r == BOARD_SIZE - 1;
+            boolean edgeCol = c == 0 || lastCol,
+                edgeRow = r == 0 || lastRow;
+            quads |= !lastCol && !lastRow ? bit(s) : 0;
+            rowPairs |= edgeRow && !lastCol ? bit(s) : 0;
+            colPairs |= edgeCol && !lastRow ? bit(s) : 0;
+            corners |= edgeRow && edgeCol ? bit(s) : 0;
+        }
+        QUAD_CORNERS = quads;
+        EDGE_ROW_PAIRS = rowPairs;
+        EDGE_COLUMN_PAIRS = colPairs;
+        CORNERS = corners;
+    }
+
+    /** Weight of a difference of one in the sides' Euler numbers. */
+    private static final int EULER_WEIGHT = 12;
+    /** Divisor of the difference in the sides' spreads. */
+    private static final int SPREAD_SCALE = 4;
+
+    /** Occupancy masks of the black and white pieces of each position. */
+    final long[] _black = new long[CAPACITY], _white = new long[CAPACITY];
+    /** Features of each side (BLACK or WHITE) of each position: number
+     *  of pieces, sums of columns, rows, and squared distances from a1,
+     *  and Euler number. */
+    final long[][] _count = new long[2][CAPACITY],
+        _sumCols = new long[2][CAPACITY], _sumRows = new long[2][CAPACITY],
+        _sumSquares = new long[2][CAPACITY], _euler = new long[2][CAPACITY];
+    /** Scores computed by the last evaluate(). */
+    private final int[] _scores = new int[CAPACITY];
+    /** Number of positions held. */
+    private int _size;
+
+    /** Measure evaluation speed on one thread, as directed by ARGS:
+     *      bench [N]
+     *  scores N (default 1000000) positions from random games with the
+     *  scalar evaluator, with create(), and with MachinePlayer's
+     *  staticScore (after forgetting each board's regions, as making a
+     *  move does), and prints the positions per second of each after a
+     *  first, warm-up, round. */
+    public static void main(String... args) {
+        if (args.length < 1 || args.length > 2 || !args[0].equals("bench")) {
+            System.err.println("Usage: java [--add-modules "
+                               + "jdk.incubator.vector] loa.LeafEvaluator "
+                               + "bench [N]");
+            System.exit(1);
+        }
+        long total = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+        Board[] boards = new Board[CAPACITY];
+        Random random = new Random(0);
+        int[] moves = new int[Board.MAX_MOVES];
+        for (int i = 0; i < boards.length; i += 1) {
+            Board board = new Board();
+            for (int k = random.nextInt(40); k > 0 && !board.gameOver();
+                 k -= 1) {
+                board.makeMove(moves[random.nextInt(board.legalMoves(moves))]);
+            }
+            boards[i] = board;
+        }
+
+        LeafEvaluator best = create();
+        LeafEvaluator[] evaluators = { new LeafEvaluator(), best };
+        String[] names = { "scalar", best.vectorized() ? "vector" : "scalar" };
+        for (int e = 0; e < evaluators.length; e += 1) {
+            LeafEvaluator eval = evaluators[e];
+            for (Board board : boards) {
+                eval.add(board.occupied(BP), board.occupied(WP));
+            }
+            for (int trial = 0; trial < 2; trial += 1) {
+                long check = 0;
+                long start = System.nanoTime();
+                for (long n = 0; n < total; n += eval.size()) {
+                    eval.evaluate();
+                    check += eval.score(random.nextInt(eval.size()));
+                }
+                if (trial > 0) {
+                    report(names[e], total, System.nanoTime() - start,
+                           check);
+                }
+            }
+        }
+
+        MachinePlayer player = new MachinePlayer();
+        Square corner = sq(0, 0);
+        for (int trial = 0; trial < 2; trial += 1) {
+            long check = 0;
+            long start = System.nanoTime();
+            for (long n = 0; n < total; n += 1) {
+                Board board = boards[(int) (n % boards.length)];
+                board.set(corner, board.get(corner));
+                check += player.staticScore(board);
+            }
+            if (trial > 0) {
+                report("staticScore", total, System.nanoTime() - start,
+                       check);
+            }
+        }
+    }
+
+    /** Print the rate of scoring N positions in NANOS nanoseconds by the
+     *  evaluator called NAME, with CHECK to keep the work from being
+     *  optimized away. */
+    private static void report(String name, long n, long nanos, long check) {
+        System.out.printf("%-12s %,14.0f positions/sec (%d)%n", name,
+                          n * 1e9 / Math.max(1, nanos), check);
+    }
+}
@@ -2,9 +2,21 @@
  * University of California.  All rights reserved. */
 package loa;
 
-import java.util.List;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static loa.Geometry.*;
 import static loa.Piece.*;
+import static loa.Utils.*;
 
 /** An automated Player.
  *  @author Manaal
@@ -20,6 +32,35 @@ class MachinePlayer extends Player {
      * A magnitude greater than a normal value.
      */
     private static final int INFTY = Integer.MAX_VALUE;
+    /** Multiplier spreading the moves left over the bits of a hash key
+     *  (the 64-bit golden ratio). */
+    private static final long HORIZON_MULTIPLIER = 0x9e3779b97f4a7c15L;
+    /** Deepest search attempted when a time limit is in effect, and
+     *  the deepest allowed at all. */
+    static final int MAX_DEPTH = 30;
+    /** Log2 of the number of slots in each player's transposition
+     *  table. */
+    private static final int TABLE_SIZE = 18;
+    /** Number of nodes searched between checks of the clock. */
+    private static final int CLOCK_INTERVAL = 1024;
+    /** Least time between progress reports, in milliseconds. */
+    static final int PROGRESS_INTERVAL = 100;
+    /** Marks a move in _frontierMoves whose value is already known (the
+     *  game ends, repeats, or is in the tablebase); not part of any move
+     *  code. */
+    private static final int FINISHED = 1 << 30;
+    /** Log2 of the number of slots in each player's proof table. */
+    private static final int PROOF_TABLE_SIZE = 18;
+    /** Indices of the terms of the built-in evaluation (see terms). */
+    static final int CONTIG = 0, REGIONS = 1;
+    /** Number of terms of the built-in evaluation. */
+    static final int NUM_TERMS = 2;
+    /** Names of the terms, as they appear in weights files. */
+    static final String[] TERM_NAMES = { "contig", "regions" };
+    /** Weights of the terms when no weights file is given. */
+    static final int[] DEFAULT_WEIGHTS = { 5, 2 };
+    /** Resource holding the weights used at startup, if present. */
+    static final String WEIGHTS_RESOURCE = "loa/Weights.txt";
 
     /**
      * A new MachinePlayer with no piece or controller (intended to produce
@@ -34,6 +75,118 @@ class MachinePlayer extends Player {
      */
     MachinePlayer(Piece side, Game game) {
         super(side, game);
+        for (int d = 0; d < _pickers.length; d += 1) {
+            _pickers[d] = new MovePicker();
+        }
+    }
+
+    /** Limit each move to about MILLIS milliseconds of thinking, searching
+     *  as deeply as time allows.  MILLIS <= 0 means search to a fixed
+     *  depth with no limit. */
+    static void setTimeLimit(long millis) {
+        _timeLimit = millis;
+    }
+
+    /** Return the limit on thinking per move set by setTimeLimit. */
+    static long timeLimit() {
+        return _timeLimit;
+    }
+
+    /** Iff ON, keep searching on the opponent's time. */
+    static void setPondering(boolean on) {
+        _pondering = on;
+    }
+
+    /** Use TABLES, if not null, for the exact values of positions with
+     *  few pieces. */
+    static void setTablebase(Tablebase tables) {
+        _tablebase = tables;
+    }
+
+    /** Before each search, try for up to NODES positions to prove a
+     *  forced win, and play the winning move at once if one is found.
+     *  The time it takes counts against the time limit of the move.
+     *  NODES <= 0, the default, turns the proof search off. */
+    static void setProofNodes(long nodes) {
+        _proofNodes = nodes;
+    }
+
+    /** Score positions with the tables of PATTERNS instead of the
+     *  built-in evaluation, or with the built-in one if PATTERNS is
+     *  null. */
+    static void setPatterns(PatternEvaluator patterns) {
+        _patterns = patterns;
+    }
+
+    /** Weight the terms of the built-in evaluation by WEIGHTS, indexed
+     *  like TERM_NAMES. */
+    static void setWeights(int[] weights) {
+        _weights = weights.clone();
+    }
+
+    /** Return the weights of the terms of the built-in evaluation. */
+    static int[] weights() {
+        return _weights.clone();
+    }
+
+    /** Return the weights in the file named NAME or, if there is no such
+     *  file, in the resource with that name.  Each line is a term name
+     *  and its integer weight; blank lines and lines starting with '#'
+     *  are ignored, and terms not mentioned keep their default weights.
+     *  Throws IOException if neither can be read or is a weights file. */
+    static int[] readWeights(String name) throws IOException {
+        InputStream in;
+        if (new File(name).exists()) {
+            in = new FileInputStream(name);
+        } else {
+            in = MachinePlayer.class.getClassLoader()
+                .getResourceAsStream(name);
+            if (in == null) {
+                throw new IOException("no such file or resource: " + name);
+            }
+        }
+        int[] weights = DEFAULT_WEIGHTS.clone();
+        try (BufferedReader lines =
+             new BufferedReader(new InputStreamReader(in))) {
+            for (String line = lines.readLine(); line != null;
+                 line = lines.readLine()) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] words = line.split("\\s+");
+                int t = Arrays.asList(TERM_NAMES).indexOf(words[0]);
+                if (t < 0 || words.length != 2) {
+                    throw new IOException("not a weights file: " + name);
+                }
+                weights[t] = Integer.parseInt(words[1]);
+            }
+        } catch (NumberFormatException excp) {
+            throw new IOException("not a weights file: " + name);
+        }
+        return weights;
+    }
+
+    /** Iff ON, score the leaves of the search in batches, all the
+     *  successors of a node at depth 1 at once, with a LeafEvaluator
+     *  rather than with staticScore.  That evaluation is its own, and
+     *  ignores the weights and patterns. */
+    static void setBatchEvaluation(boolean on) {
+        _batchEvaluation = on;
+    }
+
+    /** Iff ON, store positions in the transposition table under their
+     *  canonical form (see Symmetry), so that one entry serves all the
+     *  reflections and rotations of a position, at the cost of finding
+     *  that form at each node. */
+    static void setSymmetricTable(boolean on) {
+        _symmetricTable = on;
+    }
+
+    /** Play moves from BOOK, when it has any, instead of searching.  BOOK
+     *  may be null, for no book. */
+    static void setOpeningBook(OpeningBook book) {
+        _book = book;
     }
 
     @Override
@@ -41,12 +194,33 @@ class MachinePlayer extends Player {
         Move choice;
 
         assert side() == getGame().getBoard().turn();
-        int depth;
-        choice = searchForMove();
+        stopPondering();
+        choice = _book == null ? null : _book.choose(getBoard(), getGame());
+        if (choice == null) {
+            choice = Move.mv(searchForMove() & ~Move.CAPTURE_FLAG);
+        }
         getGame().reportMove(choice);
+        startPondering(choice.code());
         return choice.toString();
     }
 
+    @Override
+    void startMove() {
+        _moveNow = false;
+    }
+
+    @Override
+    void stopBackground() {
+        stopPondering();
+    }
+
+    /** Stops the search at the next node visited; iterative deepening
+     *  then plays the move of the last iteration it completed. */
+    @Override
+    void moveNow() {
+        _moveNow = true;
+    }
+
     @Override
     Player create(Piece piece, Game game) {
         return new MachinePlayer(piece, game);
@@ -58,20 +232,290 @@ class MachinePlayer extends Player {
     }
 
     /**
-     * Return a move after searching the game tree to DEPTH>0 moves
-     * from the current position. Assumes the game is not over.
+     * Return the code of a move after searching the game tree to DEPTH>0
+     * moves from the current position. Assumes the game is not over.
      */
-    private Move searchForMove() {
+    private int searchForMove() {
         Board work = new Board(getBoard());
-        int value;
         assert side() == work.turn();
-        _foundMove = null;
-        if (side() == WP) {
-            value = findMove(work, chooseDepth(), true, 1, -INFTY, INFTY);
-        } else {
-            value = findMove(work, chooseDepth(), true, -1, -INFTY, INFTY);
+        int exact = tablebaseMove(work);
+        if (exact != 0) {
+            return exact;
+        }
+        long deadline = deadline();
+        if (_proofNodes > 0
+            && _solver.solve(work, _proofNodes, deadline)
+               == ProofSolver.PROVEN) {
+            debug(1, "Forced win proved in %d nodes", _solver.nodes());
+            return _solver.winningMove();
+        }
+        _nodes = 0;
+        _searchStart = _nextReport = System.currentTimeMillis();
+        _lastIteration = null;
+        _reporting = true;
+        try {
+            return iterate(work, side() == WP ? 1 : -1, deadline);
+        } finally {
+            _reporting = false;
+            _progress.set(null);
+        }
+    }
+
+    /** Return the latest progress report of the search for my move, or
+     *  null if none is under way or it has completed no iteration yet.
+     *  May be called from any thread.  Reports are published by the
+     *  search at most every PROGRESS_INTERVAL milliseconds, each
+     *  replacing the last, so that a reader that falls behind simply
+     *  sees the newest. */
+    @Override
+    SearchProgress progress() {
+        return _progress.get();
+    }
+
+    /** Record the result of an iteration of the search for my move on
+     *  BOARD to DEPTH, which found the move with code MOVE and value
+     *  SCORE, and report it if it is time. */
+    private void iterationDone(Board board, int depth, int score,
+                               int move) {
+        _lastIteration = new SearchProgress(move, score, depth,
+                                            principalVariation(board, move,
+                                                               depth),
+                                            0, 0);
+        reportProgress(System.currentTimeMillis());
+    }
+
+    /** Publish the result of the last completed iteration with the
+     *  work done so far, if the time is NOW and PROGRESS_INTERVAL
+     *  milliseconds have passed since the last report. */
+    private void reportProgress(long now) {
+        if (_lastIteration != null && now >= _nextReport) {
+            _progress.set(_lastIteration.at(_nodes, now - _searchStart));
+            _nextReport = now + PROGRESS_INTERVAL;
+        }
+    }
+
+    /** Return the tablebase value of BOARD, as for Tablebase.probe, or
+     *  Tablebase.UNKNOWN if there is none or if the move limit will end
+     *  the game before the result it gives. */
+    private int probe(Board board) {
+        return probe(board.occupied(BP), board.occupied(WP), board.turn(),
+                     board.movesLeft());
+    }
+
+    /** Return the tablebase value, as for probe(Board), of the position
+     *  in which black occupies BLACK and white WHITE, with TURN to move
+     *  and LEFT moves left before the move limit. */
+    private int probe(long black, long white, Piece turn, int left) {
+        if (_tablebase == null) {
+            return Tablebase.UNKNOWN;
+        }
+        int v = _tablebase.probe(black, white, turn);
+        if (v != Tablebase.UNKNOWN && Math.abs(v) - 1 > left) {
+            return Tablebase.UNKNOWN;
+        }
+        return v;
+    }
+
+    /** Return the code of the move on BOARD that the tablebase shows to
+     *  be best: the quickest win, else a draw, else the slowest loss.
+     *  Returns 0 if BOARD or none of its successors is covered. */
+    private int tablebaseMove(Board board) {
+        if (probe(board) == Tablebase.UNKNOWN) {
+            return 0;
+        }
+        int best = 0;
+        int bestRank = -INFTY;
+        int[] moves = _moveBuffer;
+        for (int i = board.legalMoves(moves) - 1; i >= 0; i -= 1) {
+            int mv = moves[i];
+            board.makeMove(mv);
+            int v = probe(board);
+            board.retract();
+            if (v == Tablebase.UNKNOWN) {
+                continue;
+            }
+            int rank = v < 0 ? Tablebase.MAX_DISTANCE + v
+                : v == 0 ? -Tablebase.MAX_DISTANCE
+                : -2 * Tablebase.MAX_DISTANCE + v;
+            if (rank > bestRank) {
+                best = mv;
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+
+    /** Return the score (positive favoring white) of a position with
+     *  TURN to move whose tablebase value is V.  Faster wins score
+     *  higher. */
+    private static int tablebaseScore(Piece turn, int v) {
+        int score = v > 0 ? WINNING_VALUE - v : v < 0 ? -WINNING_VALUE - v : 0;
+        return turn == WP ? score : -score;
+    }
+
+    /** Return the time by which a search for a move starting now must
+     *  end, or Long.MAX_VALUE if there is no time limit. */
+    private static long deadline() {
+        return _timeLimit > 0
+            ? System.currentTimeMillis() + _timeLimit : Long.MAX_VALUE;
+    }
+
+    /** Search BOARD by iterative deepening up to chooseDepth(), for the
+     *  side indicated by SENSE, stopping early if time DEADLINE (as from
+     *  deadline()) passes or the search is cancelled.  Since no search
+     *  need look past the move limit, deepening also stops once it
+     *  reaches the limit, so that moves near the end of a long game take
+     *  only the time they need.  Return the code of the move found by
+     *  the last completed iteration. */
+    private int iterate(Board board, int sense, long deadline) {
+        int best = 0;
+        _deadline = deadline;
+        _aborted = false;
+        int maxDepth = Math.min(chooseDepth(), board.movesLeft());
+        for (int depth = 1; depth <= maxDepth; depth += 1) {
+            _foundMove = 0;
+            int value = findMove(board, depth, true, sense, -INFTY, INFTY);
+            if (_aborted) {
+                break;
+            }
+            best = _foundMove;
+            if (_reporting) {
+                iterationDone(board, depth, value, best);
+            }
+        }
+        if (best == 0) {
+            board.legalMoves(_moveBuffer);
+            best = _moveBuffer[0];
+        }
+        return best;
+    }
+
+    /** The result of analyze: the best move found, its score (positive
+     *  favoring white), the depth of the last completed iteration, the
+     *  principal variation, and the number of positions searched. */
+    static class Analysis {
+        /** An analysis with the given MOVE, SCORE, DEPTH, PV, and
+         *  NODES. */
+        Analysis(int move, int score, int depth, int[] pv, long nodes) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.pv = pv;
+            this.nodes = nodes;
+        }
+
+        /** Code of the best move, or 0 if the game is over. */
+        final int move;
+        /** Value of the position, positive favoring white. */
+        final int score;
+        /** Depth of the last completed search. */
+        final int depth;
+        /** Codes of the expected line of play, starting with move. */
+        final int[] pv;
+        /** Positions searched. */
+        final long nodes;
+    }
+
+    /** Analyze BOARD, which is not changed, by iterative deepening to
+     *  DEPTH (at most MAX_DEPTH and the number of moves left before the
+     *  move limit), stopping after about MILLIS milliseconds if
+     *  MILLIS > 0.  Uses neither book, tablebase moves, nor proof search
+     *  at the root, so that the result reflects the search itself. */
+    Analysis analyze(Board board, int depth, long millis) {
+        return analyze(board, depth, millis, 1).get(0);
+    }
+
+    /** Analyze BOARD as for analyze(BOARD, DEPTH, MILLIS), returning the
+     *  best LINES moves (or all, if there are fewer), best first, each
+     *  with its exact score and principal variation.  At each depth,
+     *  the best move is found, then the search is repeated with the
+     *  moves found so far excluded at the root; the transposition table
+     *  holds most of what each repetition needs.  If time runs out, the
+     *  moves are those of the last depth completed for all of them.  If
+     *  the game is over, returns one analysis with move 0.  The node
+     *  count of each analysis is that of the whole search. */
+    List<Analysis> analyze(Board board, int depth, long millis,
+                           int lines) {
+        Board work = new Board(board);
+        int sense = work.turn() == WP ? 1 : -1;
+        _deadline = millis > 0
+            ? System.currentTimeMillis() + millis : Long.MAX_VALUE;
+        _aborted = false;
+        _nodes = 0;
+        if (work.winner() != null) {
+            return Collections.singletonList(
+                new Analysis(0, staticScore(work), 0, new int[0], 0));
+        }
+        int n = Math.min(Math.max(1, lines), work.legalMoves(_moveBuffer));
+        int[] best = Arrays.copyOf(_moveBuffer, n), scores = new int[n];
+        int reached = 0;
+        int maxDepth = Math.min(Math.min(depth, MAX_DEPTH), work.movesLeft());
+        for (int d = 1; d <= maxDepth && !_aborted; d += 1) {
+            int[] found = new int[n], values = new int[n];
+            _excluded = found;
+            for (int k = 0; k < n && !_aborted; k += 1) {
+                _numExcluded = k;
+                _foundMove = 0;
+                values[k] = findMove(work, d, true, sense, -INFTY, INFTY);
+                found[k] = _foundMove;
+            }
+            _numExcluded = 0;
+            if (!_aborted) {
+                best = found;
+                scores = values;
+                reached = d;
+            }
+        }
+        ArrayList<Analysis> result = new ArrayList<>();
+        for (int k = 0; k < n; k += 1) {
+            result.add(new Analysis(best[k], scores[k], reached,
+                                    principalVariation(work, best[k],
+                                                       reached),
+                                    _nodes));
         }
-        return _foundMove;
+        return result;
+    }
+
+    /** Forget the results of previous searches, so that the next one
+     *  does not depend on what was searched before. */
+    void forget() {
+        _table.clear();
+        for (int[] killers : _killers) {
+            killers[0] = killers[1] = 0;
+        }
+    }
+
+    /** Return the line of play of at most LENGTH moves on BOARD that
+     *  starts with MOVE and continues with the best moves recorded in
+     *  the transposition table.  BOARD is restored before returning. */
+    private int[] principalVariation(Board board, int move, int length) {
+        int[] pv = new int[Math.max(1, length)];
+        int n = 0;
+        while (n < pv.length && move != 0 && board.winner() == null
+               && board.isLegal(Move.mv(move & ~Move.CAPTURE_FLAG))) {
+            pv[n] = move & ~Move.CAPTURE_FLAG;
+            board.makeMove(move);
+            n += 1;
+            int orient = orientation(board);
+            int slot = _table.probe(tableKey(board, length - n, orient));
+            move = slot >= 0
+                ? Symmetry.move(_table.move(slot), Symmetry.inverse(orient))
+                : 0;
+        }
+        for (int i = 0; i < n; i += 1) {
+            board.retract();
+        }
+        return Arrays.copyOf(pv, n);
+    }
+
+    /** Return the value of BOARD (positive favoring white) found by
+     *  searching it to DEPTH, taken to be at least 0 and at most
+     *  MAX_DEPTH, with no time limit. */
+    int searchValue(Board board, int depth) {
+        _deadline = Long.MAX_VALUE;
+        _aborted = false;
+        return findMove(board, Math.max(0, Math.min(depth, MAX_DEPTH)),
+                        false, board.turn() == WP ? 1 : -1, -INFTY, INFTY);
     }
 
     /**
@@ -81,81 +525,346 @@ class MachinePlayer extends Player {
      * and minimal value or value < ALPHA if SENSE==-1. Searches up to
      * DEPTH levels.  Searching at level 0 simply returns a static estimate
      * of the board value and does not set _foundMove. If the game is over
-     * on BOARD, does not set _foundMove.
+     * on BOARD, does not set _foundMove.  Results are recorded in and
+     * taken from the transposition table.  A position below the root
+     * that repeats one earlier in the game or search scores as a draw,
+     * since either side may choose to repeat it again.  A position below
+     * the root that the tablebase covers takes its exact value, even at
+     * depth 0.  DEPTH is cut to the number of moves left before the
+     * move limit, where the game is a tie; such searches are exact to
+     * the end of the game and are stored under a key that includes the
+     * moves left.  With a symmetric
+     * table, entries hold moves in the canonical orientation of their
+     * positions, and are turned back to BOARD's.  If the search
+     * is stopped, sets _aborted and returns a meaningless value.
      */
-
     public int findMove(Board board, int depth, boolean saveMove,
                          int sense, int alpha, int beta) {
-        if ((depth == 0) || (board.gameOver())) {
+        _nodes += 1;
+        if (!saveMove && board.winner() == null && board.isRepetition()) {
+            return 0;
+        }
+        if (board.winner() != null) {
             return staticScore(board);
         }
-        ArrayList<Board> boardlist = boardList(board);
-        int res;
-        Board bestBoard = null;
-        if (sense == 1) {
-            int maxSofar = -INFTY;
-            for (Board b : boardlist) {
-                int val = findMove(b, depth - 1, false,
-                        -sense, alpha, beta);
-                if (val > maxSofar) {
-                    maxSofar = val;
-                    bestBoard = b;
-                }
-                alpha = Math.max(alpha, val);
-                if (beta <= alpha) {
+        int exact = saveMove ? Tablebase.UNKNOWN : probe(board);
+        if (exact != Tablebase.UNKNOWN) {
+            return tablebaseScore(board.turn(), exact);
+        }
+        if (depth == 0) {
+            return staticScore(board);
+        }
+        if (stopped()) {
+            return 0;
+        }
+        boolean restricted = saveMove && _numExcluded > 0;
+        int orient = orientation(board);
+        long key = tableKey(board, depth, orient);
+        depth = Math.min(depth, board.movesLeft());
+        int slot = _table.probe(key);
+        int hashMove = 0;
+        if (slot >= 0) {
+            hashMove = Symmetry.move(_table.move(slot),
+                                     Symmetry.inverse(orient));
+            if (_table.depth(slot) >= depth && !restricted
+                && (!saveMove || _table.bound(slot) == TranspositionTable.EXACT
+                    && board.isLegal(Move.mv(hashMove)))) {
+                int value = _table.value(slot);
+                switch (_table.bound(slot)) {
+                case TranspositionTable.LOWER:
+                    alpha = Math.max(alpha, value);
+                    break;
+                case TranspositionTable.UPPER:
+                    beta = Math.min(beta, value);
+                    break;
+                default:
+                    alpha = beta = value;
                     break;
                 }
-            }
-            res = maxSofar;
-        } else {
-            int minSofar = INFTY;
-            for (Board b : boardlist) {
-                int val = findMove(b, depth - 1, false,
-                        -sense, alpha, beta);
-                if (val < minSofar) {
-                    minSofar = val;
-                    bestBoard = b;
+                if (alpha >= beta) {
+                    if (saveMove) {
+                        _foundMove = hashMove;
+                    }
+                    return value;
                 }
+            }
+        }
+        if (depth == 1 && _batchEvaluation) {
+            return scoreFrontier(board, saveMove, sense, key, orient,
+                                 alpha, beta, restricted);
+        }
+        int[] killers = _killers[depth];
+        MovePicker moves = _pickers[depth];
+        moves.start(board, hashMove, killers[0], killers[1]);
+        int alpha0 = alpha, beta0 = beta;
+        int best = sense == 1 ? -INFTY : INFTY;
+        int bestMove = 0;
+        for (int mv = moves.next(); mv != 0; mv = moves.next()) {
+            if (restricted && excluded(mv)) {
+                continue;
+            }
+            board.makeMove(mv);
+            int val = findMove(board, depth - 1, false, -sense, alpha, beta);
+            board.retract();
+            if (_aborted) {
+                return 0;
+            }
+            if (sense == 1 ? val > best : val < best) {
+                best = val;
+                bestMove = mv;
+            }
+            if (sense == 1) {
+                alpha = Math.max(alpha, val);
+            } else {
                 beta = Math.min(beta, val);
-                if (beta <= alpha) {
-                    break;
+            }
+            if (beta <= alpha) {
+                if (!board.isCapture(mv) && killers[0] != mv) {
+                    killers[1] = killers[0];
+                    killers[0] = mv;
                 }
+                break;
+            }
+        }
+        int bound = best <= alpha0 ? TranspositionTable.UPPER
+            : best >= beta0 ? TranspositionTable.LOWER
+            : TranspositionTable.EXACT;
+        if (!restricted) {
+            _table.store(key, best, depth, bound,
+                         Symmetry.move(bestMove, orient));
+        }
+        if (saveMove) {
+            assert bestMove != 0;
+            _foundMove = bestMove;
+        }
+        return best;
+    }
+
+    /** Return the orientation in which BOARD is stored in the
+     *  transposition table: its canonical one if the table is symmetric,
+     *  and otherwise 0 (as it is). */
+    private static int orientation(Board board) {
+        return _symmetricTable ? Symmetry.orientation(board, false) : 0;
+    }
+
+    /** Return the key under which a search of BOARD to DEPTH is stored
+     *  in the transposition table, ORIENT being orientation(BOARD).
+     *  When the search reaches the move limit, the number of moves left
+     *  is mixed into the hash key, so that its result is not mistaken
+     *  for that of the same position with more moves left. */
+    private static long tableKey(Board board, int depth, int orient) {
+        int left = board.movesLeft();
+        long key = _symmetricTable ? Symmetry.key(board, orient, false)
+            : board.hashKey();
+        return depth >= left ? key ^ (left + 1) * HORIZON_MULTIPLIER : key;
+    }
+
+    /** Return the value of BOARD, which is not over, searched to depth
+     *  1, as for findMove with the same arguments and with KEY and
+     *  ORIENT the table key and orientation of BOARD, skipping the
+     *  excluded moves if RESTRICTED.  The successors are not made on
+     *  BOARD: their pieces and winners are worked out from the
+     *  occupancy masks, repetitions and tablebase values are found as
+     *  findMove would find them on each successor, which counts as a
+     *  node, and the rest are scored together by _leaves. */
+    private int scoreFrontier(Board board, boolean saveMove, int sense,
+                              long key, int orient, int alpha, int beta,
+                              boolean restricted) {
+        if (_leaves == null) {
+            _leaves = LeafEvaluator.create();
+        }
+        int[] moves = _frontierMoves, leaves = _frontierLeaves;
+        int n = board.legalMoves(moves);
+        Piece mover = board.turn(), other = mover.opposite();
+        long mine = board.occupied(mover), theirs = board.occupied(other);
+        boolean lastMove = board.movesLeft() <= 1;
+        _leaves.clear();
+        for (int i = 0; i < n; i += 1) {
+            if (restricted && excluded(moves[i])) {
+                continue;
+            }
+            _nodes += 1;
+            int from = (moves[i] >> Move.FROM_SHIFT) & Move.SQUARE_MASK,
+                to = moves[i] & Move.SQUARE_MASK;
+            long moved = mine ^ bit(from) ^ bit(to),
+                rest = theirs & ~bit(to);
+            long black = mover == BP ? moved : rest,
+                white = mover == BP ? rest : moved;
+            Piece winner =
+                RegionCache.count(RegionCache.summary(moved)) == 1 ? mover
+                : RegionCache.count(RegionCache.summary(rest)) == 1 ? other
+                : lastMove ? EMP : null;
+            if (winner == null && board.repeatsAfter(moves[i])) {
+                winner = EMP;
+            }
+            int exact = winner != null ? Tablebase.UNKNOWN
+                : probe(black, white, other, board.movesLeft() - 1);
+            if (winner != null) {
+                leaves[i] = winner == WP ? WINNING_VALUE
+                    : winner == BP ? -WINNING_VALUE : 0;
+                moves[i] |= FINISHED;
+            } else if (exact != Tablebase.UNKNOWN) {
+                leaves[i] = tablebaseScore(other, exact);
+                moves[i] |= FINISHED;
+            } else {
+                leaves[i] = _leaves.add(black, white);
+            }
+        }
+        _leaves.evaluate();
+
+        int best = sense == 1 ? -INFTY : INFTY;
+        int bestMove = 0;
+        for (int i = 0; i < n; i += 1) {
+            int mv = moves[i] & ~FINISHED;
+            if (restricted && excluded(mv)) {
+                continue;
+            }
+            int val = mv != moves[i] ? leaves[i] : _leaves.score(leaves[i]);
+            if (sense == 1 ? val > best : val < best) {
+                best = val;
+                bestMove = mv;
             }
-            res = minSofar;
+        }
+        int bound = best <= alpha ? TranspositionTable.UPPER
+            : best >= beta ? TranspositionTable.LOWER
+            : TranspositionTable.EXACT;
+        if (!restricted) {
+            _table.store(key, best, 1, bound,
+                         Symmetry.move(bestMove, orient));
         }
         if (saveMove) {
-            assert bestBoard != null;
-            _foundMove = bestBoard.lastMove();
+            _foundMove = bestMove;
+        }
+        return best;
+    }
+
+    /** Return true iff MOVE is among the moves excluded at the root. */
+    private boolean excluded(int move) {
+        for (int i = 0; i < _numExcluded; i += 1) {
+            if (_excluded[i] == move) {
+                return true;
+            }
         }
-        return res;
+        return false;
     }
 
-    /** Get a list of possible boards m.
-     * @return ArrayList
-     * @param b */
-    private ArrayList<Board> boardList(Board b) {
-        ArrayList<Board> nextBoard = new ArrayList<>();
-        List<Move> legalMoveSet = b.legalMoves();
-        if (legalMoveSet != null) {
-            for (Move mv : legalMoveSet) {
-                Board help = new Board(b);
-                help.makeMove(mv);
-                nextBoard.add(help);
+    /** If MOVES[0 .. N-1] contains the move with code MOVE, ignoring
+     *  capture flags, swap it into MOVES[0]. */
+    private static void putFirst(int move, int[] moves, int n) {
+        int squares = move & ~Move.CAPTURE_FLAG;
+        for (int i = 0; i < n && squares != 0; i += 1) {
+            if ((moves[i] & ~Move.CAPTURE_FLAG) == squares) {
+                int first = moves[0];
+                moves[0] = moves[i];
+                moves[i] = first;
+                return;
             }
         }
-        return nextBoard;
     }
+
+    /** Return true iff the current search should stop, setting _aborted
+     *  if so.  The clock is consulted only every CLOCK_INTERVAL calls,
+     *  which is also when progress is reported. */
+    private boolean stopped() {
+        if (_stopPondering || _moveNow) {
+            _aborted = true;
+        } else if ((_deadline != Long.MAX_VALUE || _reporting)
+                   && ++_nodesSinceClock >= CLOCK_INTERVAL) {
+            _nodesSinceClock = 0;
+            long now = System.currentTimeMillis();
+            _aborted = now >= _deadline;
+            if (_reporting) {
+                reportProgress(now);
+            }
+        }
+        return _aborted;
+    }
+
+    /** Start a background search of the position after the move with
+     *  code MOVE, which I am
+     *  about to make, on the assumption that the opponent will take a
+     *  while to reply.  Each possible reply is searched as if it were
+     *  my move, starting with the one my own search predicted, so that
+     *  the transposition table already holds the answer when getMove is
+     *  next called, or stopBackground, which the game calls when the
+     *  position is reset, the game ends, or I am replaced.  Does nothing
+     *  unless pondering is on. */
+    private void startPondering(int move) {
+        if (!_pondering) {
+            return;
+        }
+        Board board = new Board(getBoard());
+        board.makeMove(move);
+        if (board.winner() != null) {
+            return;
+        }
+        _stopPondering = false;
+        _ponderer = new Thread(() -> ponder(board), "ponder");
+        _ponderer.setDaemon(true);
+        _ponderer.start();
+    }
+
+    /** Search each reply to the opponent's position on BOARD, the
+     *  predicted one first, until all are done or pondering is
+     *  stopped. */
+    private void ponder(Board board) {
+        int[] replies = new int[Board.MAX_MOVES];
+        int n = board.legalMoves(replies);
+        int orient = orientation(board);
+        int slot = _table.probe(tableKey(board, 0, orient));
+        if (slot >= 0) {
+            putFirst(Symmetry.move(_table.move(slot),
+                                   Symmetry.inverse(orient)), replies, n);
+        }
+        int sense = side() == WP ? 1 : -1;
+        for (int i = 0; i < n; i += 1) {
+            if (_stopPondering) {
+                break;
+            }
+            board.makeMove(replies[i]);
+            if (board.winner() == null) {
+                iterate(board, sense, deadline());
+            }
+            board.retract();
+        }
+    }
+
+    /** Return true iff a background search started by getMove is under
+     *  way. */
+    boolean pondering() {
+        return _ponderer != null && _ponderer.isAlive();
+    }
+
+    /** Cancel any background search and wait for it to finish.  Any
+     *  results it completed remain in the transposition table. */
+    private void stopPondering() {
+        if (_ponderer == null) {
+            return;
+        }
+        _stopPondering = true;
+        try {
+            _ponderer.join();
+        } catch (InterruptedException excp) {
+            throw new Error("unexpected interrupt");
+        }
+        _ponderer = null;
+        _stopPondering = false;
+    }
+
     /**
      * Return a search depth for the current position.
      */
     private int chooseDepth() {
+        if (_timeLimit > 0) {
+            return MAX_DEPTH;
+        }
         return 3;
     }
 
     /** return an evaluation of the board atm.
      * @param board */
     public int staticScore(Board board) {
-        if (board.gameOver()) {
+        if (board.winner() != null) {
             if (board.winner() == WP) {
                 return WINNING_VALUE;
             } else if (board.winner() == BP) {
@@ -164,23 +873,126 @@ class MachinePlayer extends Player {
                 return 0;
             }
         }
-        List whiteRegions = board.getRegionSizes(WP);
-        List blackRegions = board.getRegionSizes(BP);
-        int maxW = board.getRegionSizes(WP).get(0);
-        int maxB = board.getRegionSizes(BP).get(0);
+        if (_patterns != null) {
+            return _patterns.score(board);
+        }
+        int maxW = board.largestRegion(WP);
+        int maxB = board.largestRegion(BP);
         int numW = board.getNum(WP);
         int numB = board.getNum(BP);
         int contigRegions = (numB - maxB) - (numW - maxW);
 
-        int regionsNumW = whiteRegions.size();
-        int regionsNumB = blackRegions.size();
+        int regionsNumW = board.numRegions(WP);
+        int regionsNumB = board.numRegions(BP);
         int regionsNumDifference = regionsNumB - regionsNumW;
 
-        return 5 * contigRegions + 2 * regionsNumDifference;
+        return _weights[CONTIG] * contigRegions
+            + _weights[REGIONS] * regionsNumDifference;
+    }
+
+    /** Set TERMS, indexed like TERM_NAMES, to the terms of the built-in
+     *  evaluation of the unfinished position in which black occupies
+     *  BLACK and white WHITE, so that staticScore is the sum of the
+     *  terms times their weights.  CONTIG is the number of black pieces
+     *  outside black's largest region less the same for white; REGIONS
+     *  is the number of black regions less the number of white ones. */
+    static void terms(long black, long white, int[] terms) {
+        int summaryB = RegionCache.summary(black),
+            summaryW = RegionCache.summary(white);
+        terms[CONTIG] = (Long.bitCount(black) - RegionCache.largest(summaryB))
+            - (Long.bitCount(white) - RegionCache.largest(summaryW));
+        terms[REGIONS] =
+            RegionCache.count(summaryB) - RegionCache.count(summaryW);
+    }
+
+    /** Milliseconds allowed per move, or <= 0 for a fixed depth. */
+    private static long _timeLimit;
+    /** True iff machine players search during the opponent's turn. */
+    private static boolean _pondering;
+    /** True iff the transposition table is keyed by canonical
+     *  positions. */
+    private static boolean _symmetricTable;
+    /** Endgame tables consulted during search, or null. */
+    private static Tablebase _tablebase;
+    /** Opening book consulted before searching, or null. */
+    private static OpeningBook _book;
+    /** Weights of the terms of the built-in evaluation. */
+    private static int[] _weights = DEFAULT_WEIGHTS;
+    /** Pattern tables used by staticScore, or null. */
+    private static PatternEvaluator _patterns;
+    /** True iff leaves are scored in batches by a LeafEvaluator. */
+    private static boolean _batchEvaluation;
+    /** Budget of the proof search before each move, or <= 0 for none. */
+    private static long _proofNodes;
+
+    static {
+        try {
+            _weights = readWeights(WEIGHTS_RESOURCE);
+        } catch (IOException excp) {
+            _weights = DEFAULT_WEIGHTS;
+        }
     }
 
     /**
-     * Used to convey moves discovered by findMove.
+     * Used to convey moves discovered by findMove, as Move.code()s.
      */
-    private Move _foundMove;
+    private int _foundMove;
+    /** Codes of the moves skipped at the root of a search, when finding
+     *  the next best move in analyze: _excluded[0 .. _numExcluded-1]. */
+    private int[] _excluded;
+    /** Number of moves excluded at the root. */
+    private int _numExcluded;
+
+    /** Move pickers for the nodes at each remaining search depth. */
+    private final MovePicker[] _pickers = new MovePicker[MAX_DEPTH + 1];
+    /** The two most recent quiet moves that caused a cutoff at each
+     *  remaining search depth, most recent first. */
+    private final int[][] _killers = new int[MAX_DEPTH + 1][2];
+    /** Buffer for moves generated outside findMove. */
+    private final int[] _moveBuffer = new int[Board.MAX_MOVES];
+    /** The moves of the node being scored by scoreFrontier, with
+     *  FINISHED set on those whose values are known. */
+    private final int[] _frontierMoves = new int[Board.MAX_MOVES];
+    /** For each move in _frontierMoves, its known score or the index
+     *  of its position in _leaves. */
+    private final int[] _frontierLeaves = new int[Board.MAX_MOVES];
+    /** Evaluator of the leaves of the search, created on first use. */
+    private LeafEvaluator _leaves;
+
+    /** Results of previous searches, shared by my own searches and by
+     *  pondering. */
+    private final TranspositionTable _table =
+        new TranspositionTable(TABLE_SIZE);
+    /** Solver for forced wins, tried before each search. */
+    private final ProofSolver _solver = new ProofSolver(PROOF_TABLE_SIZE);
+
+    /** Time (as from System.currentTimeMillis) at which the current
+     *  search must stop, or Long.MAX_VALUE. */
+    private long _deadline;
+    /** Nodes searched since the clock was last consulted. */
+    private int _nodesSinceClock;
+    /** True iff the current search was stopped before finishing. */
+    private boolean _aborted;
+    /** Positions visited by findMove since the last analyze or the
+     *  start of the search for my move. */
+    private long _nodes;
+    /** True iff the search for my move is reporting its progress. */
+    private boolean _reporting;
+    /** Time the search for my move began. */
+    private long _searchStart;
+    /** Time after which progress may next be reported. */
+    private long _nextReport;
+    /** Result of the last completed iteration of the search for my
+     *  move, or null. */
+    private SearchProgress _lastIteration;
+    /** The latest progress report, or null. */
+    private final AtomicReference<SearchProgress> _progress =
+        new AtomicReference<>();
+
+    /** The thread doing background search, or null. */
+    private Thread _ponderer;
+    /** Set to ask the background search to stop. */
+    private volatile boolean _stopPondering;
+    /** True when the search for the current move is to stop at once. */
+    private volatile boolean _moveNow;
 }
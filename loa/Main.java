@@ -5,6 +5,7 @@ package loa;
 import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FileReader;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.IOException;
@@ -27,6 +28,10 @@ public class Main {
     /** Name of resource containing usage message. */
     private static final String USAGE = "loa/Usage.txt";
 
+    /** Depth of search of --analyze when neither --depth nor --time is
+     *  given. */
+    static final int DEFAULT_ANALYSIS_DEPTH = 4;
+
     /** Number of seconds in one minute. */
     static final double MIN = 60.0;
 
@@ -36,7 +41,14 @@ public class Main {
     public static void main(String... args) {
         CommandArgs options =
             new CommandArgs("--debug=(\\d+){0,1} --display{0,1} --strict{0,1} "
-                            + "--log={0,1} --=(.*){0,2}",
+                            + "--log={0,1} --ponder{0,1} --book={0,1} "
+                            + "--tablebase={0,1} --mcts{0,1} --batch{0,1} "
+                            + "--symmetric{0,1} --proof=(\\d+){0,1} "
+                            + "--patterns={0,1} --weights={0,1} "
+                            + "--record={0,1} --analyze={0,1} "
+                            + "--depth=(\\d+){0,1} --threads=(\\d+){0,1} "
+                            + "--repetition=(\\d+){0,1} "
+                            + "--time=(\\d+(\\.\\d*)?){0,1} --=(.*){0,2}",
                             args);
 
         if (!options.ok()) {
@@ -49,6 +61,62 @@ public class Main {
             setMessageLevel(options.getInt("--debug"));
         }
 
+        if (options.contains("--time")) {
+            double secs = Double.parseDouble(options.getFirst("--time"));
+            MachinePlayer.setTimeLimit(Math.round(secs * Game.MILLISEC));
+            MctsPlayer.setTimeLimit(Math.round(secs * Game.MILLISEC));
+        }
+        if (options.contains("--threads")) {
+            MctsPlayer.setThreads(options.getInt("--threads"));
+        }
+        MachinePlayer.setPondering(options.contains("--ponder"));
+        if (options.contains("--batch")
+            && (options.contains("--weights")
+                || options.contains("--patterns"))) {
+            error(1, "--batch scores leaves with its own evaluation, so "
+                  + "it cannot be used with --weights or --patterns");
+        }
+        MachinePlayer.setBatchEvaluation(options.contains("--batch"));
+        MachinePlayer.setSymmetricTable(options.contains("--symmetric"));
+        if (options.contains("--proof")) {
+            MachinePlayer.setProofNodes(options.getInt("--proof"));
+        }
+        if (options.contains("--book")) {
+            try {
+                MachinePlayer.setOpeningBook(
+                    OpeningBook.open(options.getFirst("--book")));
+            } catch (IOException excp) {
+                error(1, "Could not open opening book: %s",
+                      excp.getMessage());
+            }
+        }
+        if (options.contains("--tablebase")) {
+            try {
+                MachinePlayer.setTablebase(
+                    Tablebase.open(options.getFirst("--tablebase")));
+            } catch (IOException excp) {
+                error(1, "Could not open tablebase: %s", excp.getMessage());
+            }
+        }
+
+        if (options.contains("--patterns")) {
+            try {
+                MachinePlayer.setPatterns(
+                    PatternEvaluator.open(options.getFirst("--patterns")));
+            } catch (IOException excp) {
+                error(1, "Could not read pattern tables: %s",
+                      excp.getMessage());
+            }
+        }
+        if (options.contains("--weights")) {
+            try {
+                MachinePlayer.setWeights(
+                    MachinePlayer.readWeights(options.getFirst("--weights")));
+            } catch (IOException excp) {
+                error(1, "Could not read weights: %s", excp.getMessage());
+            }
+        }
+
         List<String> files = options.get("--");
         if (!files.isEmpty()) {
             try {
@@ -72,6 +140,11 @@ public class Main {
             }
         }
 
+        if (options.contains("--analyze")) {
+            analyze(options);
+            return;
+        }
+
         Game game = getGame(options);
         if (!options.contains("--display")) {
             System.out.printf("Lines of Action.  Version %s.%n"
@@ -80,6 +153,29 @@ public class Main {
         game.play();
     }
 
+    /** Analyze the positions in the file named by the --analyze option
+     *  in OPTIONS, writing the results to the standard output. */
+    private static void analyze(CommandArgs options) {
+        long millis = 0;
+        if (options.contains("--time")) {
+            millis = Math.round(Double.parseDouble(options.getFirst("--time"))
+                                * Game.MILLISEC);
+        }
+        int depth = options.contains("--depth") ? options.getInt("--depth")
+            : millis > 0 ? Integer.MAX_VALUE : DEFAULT_ANALYSIS_DEPTH;
+        int threads = options.contains("--threads")
+            ? options.getInt("--threads")
+            : Runtime.getRuntime().availableProcessors();
+        try (BufferedReader in = new BufferedReader(
+                 new FileReader(options.getFirst("--analyze")))) {
+            new Analyzer(depth, millis, Math.max(1, threads))
+                .run(in, System.out);
+        } catch (IOException excp) {
+            error(1, "Could not analyze positions: %s", excp.getMessage());
+        }
+        System.out.flush();
+    }
+
     /** Return an appropriate Controller as indicated by OPTIONS. */
     private static Game getGame(CommandArgs options) {
         Player manualPlayer;
@@ -110,8 +206,30 @@ public class Main {
             }
         }
 
-        return new Game(view, log, reporter, manualPlayer,
-                        new MachinePlayer(), options.contains("--strict"));
+        Player autoPlayer = options.contains("--mcts")
+            ? new MctsPlayer() : new MachinePlayer();
+        Game game = new Game(view, log, reporter, manualPlayer,
+                             autoPlayer, options.contains("--strict"));
+        if (gui != null) {
+            gui.setGame(game);
+        }
+        if (options.contains("--repetition")) {
+            int limit = options.getInt("--repetition");
+            if (limit == 1) {
+                error(1, "--repetition must be 0 (no limit) or at least 2");
+            }
+            game.setRepetitionLimit(limit);
+        }
+        if (options.contains("--record")) {
+            try {
+                game.setRecorder(
+                    new GameRecorder(options.getFirst("--record")));
+            } catch (IOException excp) {
+                error(1, "Could not open record file: %s",
+                      excp.getMessage());
+            }
+        }
+        return game;
     }
 
     /** Print brief description of the command-line format. */
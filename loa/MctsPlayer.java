@@ -0,0 +1,344 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+import static loa.Geometry.*;
+import static loa.Piece.*;
+import static loa.Utils.*;
+
+/** An automated Player that chooses moves by Monte Carlo tree search:
+ *  it grows a game tree by UCT selection, scoring each new leaf with a
+ *  lightly guided random playout, and plays the most visited move.
+ *  Work is spread over several threads by root parallelism: each thread
+ *  grows its own tree from the current position, and the visit counts
+ *  of the root moves are summed.  Tree nodes are kept in arrays that are
+ *  allocated once and reused for every move.
+ *  @author Manaal
+ */
+class MctsPlayer extends Player {
+
+    /** Most nodes in one thread's tree. */
+    static final int MAX_NODES = 1 << 17;
+    /** Total playouts per move when there is no time limit. */
+    static final int DEFAULT_PLAYOUTS = 20000;
+    /** Weight of the exploration term in the UCT formula. */
+    private static final double EXPLORATION = 1.0;
+    /** Number of visits a node needs before its children are added. */
+    private static final int EXPAND_VISITS = 1;
+    /** Number of playouts between checks of the clock. */
+    private static final int CLOCK_INTERVAL = 16;
+
+    /** A new MctsPlayer with no piece or controller (intended to produce
+     *  a template). */
+    MctsPlayer() {
+        this(null, null);
+    }
+
+    /** An MctsPlayer that plays the SIDE pieces in GAME. */
+    MctsPlayer(Piece side, Game game) {
+        super(side, game);
+    }
+
+    /** Limit each move to about MILLIS milliseconds of thinking.  MILLIS
+     *  <= 0 means play DEFAULT_PLAYOUTS playouts per move. */
+    static void setTimeLimit(long millis) {
+        _timeLimit = millis;
+    }
+
+    /** Use N threads (at least 1) per search. */
+    static void setThreads(int n) {
+        _threads = Math.max(1, n);
+    }
+
+    @Override
+    String getMove() {
+        assert side() == getBoard().turn();
+        int code = search(getBoard(), getGame().randInt(Integer.MAX_VALUE));
+        Move choice = Move.mv(code & ~Move.CAPTURE_FLAG);
+        getGame().reportMove(choice);
+        return choice.toString();
+    }
+
+    @Override
+    void startMove() {
+        _moveNow = false;
+    }
+
+    @Override
+    void moveNow() {
+        _moveNow = true;
+    }
+
+    @Override
+    Player create(Piece piece, Game game) {
+        return new MctsPlayer(piece, game);
+    }
+
+    @Override
+    boolean isManual() {
+        return false;
+    }
+
+    /** Return the code of the move to play on POSITION, which must not
+     *  be over and is not changed, using SEED to seed the random
+     *  choices of the trees. */
+    int search(Board position, long seed) {
+        if (_trees == null || _trees.length != _threads) {
+            _trees = new Tree[_threads];
+            for (int i = 0; i < _threads; i += 1) {
+                _trees[i] = new Tree();
+            }
+        }
+        long start = System.currentTimeMillis();
+        long deadline =
+            _timeLimit > 0 ? start + _timeLimit : Long.MAX_VALUE;
+        int budget = _timeLimit > 0 ? Integer.MAX_VALUE
+            : Math.max(1, DEFAULT_PLAYOUTS / _threads);
+        Thread[] workers = new Thread[_threads - 1];
+        Random seeds = new Random(seed);
+        for (int i = 0; i < _trees.length; i += 1) {
+            _trees[i].reset(position, seeds.nextInt(Integer.MAX_VALUE));
+        }
+        for (int i = 0; i < workers.length; i += 1) {
+            Tree tree = _trees[i + 1];
+            workers[i] = new Thread(() -> tree.run(deadline, budget,
+                                                   this::movingNow),
+                                    "mcts");
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+        _trees[0].run(deadline, budget, this::movingNow);
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        Tree first = _trees[0];
+        int best = 0, bestVisits = -1;
+        long playouts = 0;
+        for (Tree tree : _trees) {
+            playouts += tree.playouts();
+        }
+        for (int k = 0; k < first.rootMoves(); k += 1) {
+            int visits = 0;
+            for (Tree tree : _trees) {
+                visits += tree.rootVisits(k);
+            }
+            if (visits > bestVisits) {
+                bestVisits = visits;
+                best = first.rootMove(k);
+            }
+        }
+        long millis = Math.max(1, System.currentTimeMillis() - start);
+        debug(1, "%d playouts in %d ms (%d playouts/sec, %d threads)",
+              playouts, millis, playouts * Game.MILLISEC / millis,
+              _threads);
+        return best;
+    }
+
+    /** Return true iff moveNow has been called during this search. */
+    private boolean movingNow() {
+        return _moveNow;
+    }
+
+    /** One thread's search tree.  Node 0 is the root; the children of
+     *  node N are nodes _first[N] .. _first[N] + _count[N] - 1. */
+    private static class Tree {
+
+        /** Start a new search of POSITION, using SEED for random
+         *  choices. */
+        void reset(Board position, int seed) {
+            _board.copyFrom(position);
+            _random.setSeed(seed);
+            _size = 1;
+            _playouts = 0;
+            clearNode(0, 0);
+            expand(0);
+        }
+
+        /** Run playouts until the time is DEADLINE, BUDGET playouts have
+         *  been run, or STOP returns true. */
+        void run(long deadline, int budget, BooleanSupplier stop) {
+            while (_playouts < budget && _count[0] > 1) {
+                if (_playouts % CLOCK_INTERVAL == 0
+                    && (stop.getAsBoolean()
+                        || System.currentTimeMillis() >= deadline)) {
+                    break;
+                }
+                playout();
+                _playouts += 1;
+            }
+        }
+
+        /** Return the number of playouts run in this search. */
+        int playouts() {
+            return _playouts;
+        }
+
+        /** Return the number of moves from the root. */
+        int rootMoves() {
+            return _count[0];
+        }
+
+        /** Return the code of root move K. */
+        int rootMove(int k) {
+            return _move[_first[0] + k];
+        }
+
+        /** Return the number of visits to root move K. */
+        int rootVisits(int k) {
+            return _visits[_first[0] + k];
+        }
+
+        /** Select a path from the root by UCT, add a node to the tree,
+         *  play the game out at random from there, and record the
+         *  result along the path. */
+        private void playout() {
+            int depth = 0;
+            int node = 0;
+            _path[depth++] = node;
+            while (_count[node] > 0) {
+                node = select(node);
+                _board.makeMove(_move[node]);
+                _path[depth++] = node;
+            }
+            if (_visits[node] >= EXPAND_VISITS && _board.winner() == null
+                && expand(node)) {
+                node = select(node);
+                _board.makeMove(_move[node]);
+                _path[depth++] = node;
+            }
+            Piece winner = rollout();
+            Piece mover = _board.turn();
+            for (int i = depth - 1; i >= 0; i -= 1) {
+                int n = _path[i];
+                mover = mover.opposite();
+                _visits[n] += 1;
+                _wins[n] += winner == mover ? 1 : winner == EMP ? 0.5f : 0;
+                if (i > 0) {
+                    _board.retract();
+                }
+            }
+        }
+
+        /** Return the child of NODE with the best UCT value. */
+        private int select(int node) {
+            double logVisits = Math.log(_visits[node] + 1);
+            int best = -1;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int c = _first[node], end = c + _count[node]; c < end;
+                 c += 1) {
+                int visits = _visits[c];
+                if (visits == 0) {
+                    return c;
+                }
+                double value = _wins[c] / visits
+                    + EXPLORATION * Math.sqrt(logVisits / visits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = c;
+                }
+            }
+            return best;
+        }
+
+        /** Add the children of NODE, whose position is on _board, to the
+         *  tree.  Return false if there is no room or no move. */
+        private boolean expand(int node) {
+            int n = _board.legalMoves(_buffer);
+            if (n == 0 || _size + n > MAX_NODES) {
+                return false;
+            }
+            _first[node] = _size;
+            _count[node] = n;
+            for (int i = 0; i < n; i += 1) {
+                clearNode(_size, _buffer[i]);
+                _size += 1;
+            }
+            return true;
+        }
+
+        /** Make NODE a fresh leaf reached by the move with code MOVE. */
+        private void clearNode(int node, int move) {
+            _move[node] = move;
+            _first[node] = 0;
+            _count[node] = 0;
+            _visits[node] = 0;
+            _wins[node] = 0;
+        }
+
+        /** Play random moves on _board until the game ends, undo them,
+         *  and return the winner (EMP for a tie).  Of two moves drawn at
+         *  random, the one that lands next to more friendly pieces is
+         *  played. */
+        private Piece rollout() {
+            int plies;
+            Piece winner;
+            for (plies = 0; (winner = _board.winner()) == null;
+                 plies += 1) {
+                int n = _board.legalMoves(_buffer);
+                if (n == 0) {
+                    winner = EMP;
+                    break;
+                }
+                int a = _buffer[_random.nextInt(n)],
+                    b = _buffer[_random.nextInt(n)];
+                _board.makeMove(support(a) >= support(b) ? a : b);
+            }
+            for (; plies > 0; plies -= 1) {
+                _board.retract();
+            }
+            return winner;
+        }
+
+        /** Return the number of pieces of the side to move on _board
+         *  that would be adjacent to the moved piece after the move with
+         *  code MOVE. */
+        private int support(int move) {
+            int from = (move >> Move.FROM_SHIFT) & Move.SQUARE_MASK,
+                to = move & Move.SQUARE_MASK;
+            long friends = _board.occupied(_board.turn()) & ~bit(from);
+            return Long.bitCount(grow(bit(to)) & friends & ~bit(to));
+        }
+
+        /** The position being searched, with the moves along the current
+         *  path made. */
+        private final Board _board = new Board();
+        /** Source of random choices. */
+        private final Random _random = new Random();
+        /** Number of nodes in use. */
+        private int _size;
+        /** Playouts run in this search. */
+        private int _playouts;
+        /** Move code leading to each node. */
+        private final int[] _move = new int[MAX_NODES];
+        /** Index of each node's first child. */
+        private final int[] _first = new int[MAX_NODES];
+        /** Number of children of each node (0 until it is expanded). */
+        private final int[] _count = new int[MAX_NODES];
+        /** Number of playouts through each node. */
+        private final int[] _visits = new int[MAX_NODES];
+        /** Total result of the playouts through each node, for the side
+         *  that made the move leading to it (1 a win, 1/2 a tie). */
+        private final float[] _wins = new float[MAX_NODES];
+        /** Nodes on the current path, root first. */
+        private final int[] _path = new int[MAX_NODES];
+        /** Buffer for generated moves. */
+        private final int[] _buffer = new int[Board.MAX_MOVES];
+    }
+
+    /** Milliseconds allowed per move, or <= 0 for a playout budget. */
+    private static long _timeLimit;
+    /** Number of search threads. */
+    private static int _threads = Runtime.getRuntime().availableProcessors();
+    /** The search trees, one per thread, allocated on first use. */
+    private Tree[] _trees;
+    /** True when the search for the current move is to stop at once. */
+    private volatile boolean _moveNow;
+}
@@ -53,6 +53,24 @@ final class Move {
         return mv(from, to, false);
     }
 
+    /** Return the move whose code() is CODE, or null if CODE denotes
+     *  no valid move. */
+    static Move mv(int code) {
+        if (code < 0 || code > CODE_MASK) {
+            return null;
+        }
+        return _moves[(code >> FROM_SHIFT) & SQUARE_MASK][code & SQUARE_MASK]
+            [code >> CAPTURE_SHIFT];
+    }
+
+    /** Return a compact encoding of this move: the index of getFrom()
+     *  in bits 6-11, that of getTo() in bits 0-5, and isCapture() in
+     *  bit 12.  The low 12 bits alone identify the squares. */
+    int code() {
+        return (_from.index() << FROM_SHIFT) | _to.index()
+            | (_capture ? 1 << CAPTURE_SHIFT : 0);
+    }
+
     /** Return the Square moved from. */
     Square getFrom() {
         return _from;
@@ -91,6 +109,17 @@ final class Move {
         _captureMove = _capture ? this : new Move(from, to, true);
     }
 
+    /** Position of the from-square index in code(). */
+    static final int FROM_SHIFT = 6;
+    /** Position of the capture flag in code(). */
+    static final int CAPTURE_SHIFT = 12;
+    /** Mask for one square index in code(). */
+    static final int SQUARE_MASK = (1 << FROM_SHIFT) - 1;
+    /** The capture flag of code(). */
+    static final int CAPTURE_FLAG = 1 << CAPTURE_SHIFT;
+    /** Mask for all bits of code(). */
+    static final int CODE_MASK = (1 << (CAPTURE_SHIFT + 1)) - 1;
+
     /** Starting and destination Squares. */
     private final Square _from, _to;
     /** True iff this Move records a capture. */
@@ -0,0 +1,121 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+/** Produces the legal moves of a position one at a time, in the order
+ *  in which the search wants to try them: the hash move, then captures,
+ *  then killer moves, then the remaining quiet moves.  Each group is
+ *  generated only when the one before it is used up, so a search that
+ *  cuts off on an early move never generates the quiet moves.  No move
+ *  is produced twice.  One MovePicker is reused for every node at the
+ *  same search depth.
+ *  @author Manaal
+ */
+class MovePicker {
+
+    /** Start producing the moves of BOARD, whose side to move is not to
+     *  change until I am done.  HASHMOVE is the code of a move to try
+     *  first, and KILLER1 and KILLER2 of quiet moves to try after the
+     *  captures; each may be 0 (none) or illegal, in which case it is
+     *  skipped. */
+    void start(Board board, int hashMove, int killer1, int killer2) {
+        _board = board;
+        _hashMove = hashMove & ~Move.CAPTURE_FLAG;
+        _killers[0] = killer1 & ~Move.CAPTURE_FLAG;
+        _killers[1] = killer2 & ~Move.CAPTURE_FLAG;
+        _killersTried = 0;
+        _stage = HASH;
+    }
+
+    /** Return the code of my next move, or 0 if there are no more. */
+    int next() {
+        while (true) {
+            switch (_stage) {
+            case HASH:
+                _stage = GENERATE_CAPTURES;
+                if (_hashMove != 0 && _board.isLegal(_hashMove)) {
+                    return _hashMove;
+                }
+                _hashMove = 0;
+                break;
+            case GENERATE_CAPTURES:
+                _count = _board.legalMoves(_moves, Board.CAPTURES);
+                _index = 0;
+                _stage = CAPTURES;
+                break;
+            case CAPTURES:
+                while (_index < _count) {
+                    int move = _moves[_index++];
+                    if ((move & ~Move.CAPTURE_FLAG) != _hashMove) {
+                        return move;
+                    }
+                }
+                _index = 0;
+                _stage = KILLERS;
+                break;
+            case KILLERS:
+                while (_index < _killers.length) {
+                    int move = _killers[_index++];
+                    if (move != 0 && move != _hashMove
+                        && (_index == 1 || move != _killers[0])
+                        && _board.isLegal(move) && !_board.isCapture(move)) {
+                        _tried[_killersTried++] = move;
+                        return move;
+                    }
+                }
+                _stage = GENERATE_QUIET_MOVES;
+                break;
+            case GENERATE_QUIET_MOVES:
+                _count = _board.legalMoves(_moves, Board.QUIET_MOVES);
+                _index = 0;
+                _stage = QUIET_MOVES;
+                break;
+            case QUIET_MOVES:
+                while (_index < _count) {
+                    int move = _moves[_index++];
+                    if (move != _hashMove && !triedKiller(move)) {
+                        return move;
+                    }
+                }
+                _stage = DONE;
+                return 0;
+            default:
+                return 0;
+            }
+        }
+    }
+
+    /** Return true iff MOVE was produced as a killer move. */
+    private boolean triedKiller(int move) {
+        for (int i = 0; i < _killersTried; i += 1) {
+            if (_tried[i] == move) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Stages, in order. */
+    private static final int
+        HASH = 0, GENERATE_CAPTURES = 1, CAPTURES = 2, KILLERS = 3,
+        GENERATE_QUIET_MOVES = 4, QUIET_MOVES = 5, DONE = 6;
+
+    /** The board whose moves I produce. */
+    private Board _board;
+    /** Current stage. */
+    private int _stage;
+    /** The hash move, without capture flag, or 0 if none or illegal. */
+    private int _hashMove;
+    /** The killer moves given to start. */
+    private final int[] _killers = new int[2];
+    /** The killer moves already produced, in _tried[0 .. _killersTried-1]. */
+    private final int[] _tried = new int[2];
+    /** Number of killer moves produced. */
+    private int _killersTried;
+    /** Moves generated for the current stage, in _moves[0 .. _count-1]. */
+    private final int[] _moves = new int[Board.MAX_MOVES];
+    /** Number of generated moves. */
+    private int _count;
+    /** Index of the next generated move or killer to consider. */
+    private int _index;
+}
@@ -0,0 +1,331 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import static loa.Piece.*;
+
+/** A read-only opening book: a file of (position, move, weight, score)
+ *  entries sorted by position key, read through a memory-mapped
+ *  channel so that a lookup is a binary search over the file with no
+ *  heap allocation.  Also the tool that builds, merges, and prunes book
+ *  files (see main).  Positions are keyed by their color-blind canonical
+ *  form (Symmetry.key(board, true)) and moves are stored in its
+ *  orientation, so one set of entries serves every reflection and
+ *  rotation of a position, and the position with colors reversed.
+ *
+ *  File layout (big-endian): a 16-byte header holding MAGIC, VERSION,
+ *  the entry count, and a reserved word, followed by ENTRY_SIZE-byte
+ *  entries, each a long position key, a short move (the low 12 bits of
+ *  Move.code(), in the canonical orientation), an unsigned short
+ *  weight, and an int score (positive favors the side to move).
+ *  @author Manaal
+ */
+class OpeningBook {
+
+    /** First word of every book file ("LOAB"). */
+    static final int MAGIC = 0x4c4f4142;
+    /** Format version written and accepted. */
+    static final int VERSION = 2;
+    /** Size of the file header in bytes. */
+    static final int HEADER_SIZE = 16;
+    /** Size of one entry in bytes. */
+    static final int ENTRY_SIZE = 16;
+    /** Largest possible weight. */
+    static final int MAX_WEIGHT = 0xffff;
+    /** Mask selecting the squares of a move code. */
+    static final int MOVE_MASK = 0xfff;
+
+    /** A book whose entries are in the mapped buffer DATA. */
+    private OpeningBook(MappedByteBuffer data) {
+        _data = data;
+        _size = data.getInt(8);
+    }
+
+    /** Return the book in the file named NAME.  Throws IOException if it
+     *  cannot be read or is not a book file. */
+    static OpeningBook open(String name) throws IOException {
+        try (FileChannel chan =
+             FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+            MappedByteBuffer data =
+                chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+            if (chan.size() < HEADER_SIZE || data.getInt(0) != MAGIC
+                || data.getInt(4) != VERSION
+                || chan.size() != HEADER_SIZE
+                    + (long) data.getInt(8) * ENTRY_SIZE) {
+                throw new IOException("not an opening book: " + name);
+            }
+            return new OpeningBook(data);
+        }
+    }
+
+    /** Return the number of entries. */
+    int size() {
+        return _size;
+    }
+
+    /** Return a book move for BOARD chosen at random with probability
+     *  proportional to weight, using GAME's random source, or null if
+     *  the position is not in the book. */
+    Move choose(Board board, Game game) {
+        int t = Symmetry.orientation(board, true);
+        long key = Symmetry.key(board, t, true);
+        int first = find(key), total = 0;
+        int last;
+        for (last = first; last < _size && key(last) == key; last += 1) {
+            total += weight(last);
+        }
+        if (total == 0) {
+            return null;
+        }
+        int pick = game.randInt(total);
+        for (int i = first; i < last; i += 1) {
+            pick -= weight(i);
+            if (pick < 0) {
+                Move move = move(i, Symmetry.inverse(t));
+                return board.isLegal(move) ? move : null;
+            }
+        }
+        return null;
+    }
+
+    /** Return the index of the first entry whose key is >= KEY. */
+    private int find(long key) {
+        int lo = 0, hi = _size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (key(mid) < key) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** Return the position key of entry K. */
+    private long key(int k) {
+        return _data.getLong(HEADER_SIZE + k * ENTRY_SIZE);
+    }
+
+    /** Return the move of entry K, taken by orientation T. */
+    private Move move(int k, int t) {
+        return Move.mv(Symmetry.move(_data.getShort(HEADER_SIZE
+                                                    + k * ENTRY_SIZE + 8)
+                                     & MOVE_MASK, t));
+    }
+
+    /** Return the weight of entry K. */
+    private int weight(int k) {
+        return _data.getChar(HEADER_SIZE + k * ENTRY_SIZE + 10);
+    }
+
+    /** Return the score of entry K. */
+    private int score(int k) {
+        return _data.getInt(HEADER_SIZE + k * ENTRY_SIZE + 12);
+    }
+
+    /** Return all my entries, in file order. */
+    List<Entry> entries() {
+        ArrayList<Entry> result = new ArrayList<>(_size);
+        for (int k = 0; k < _size; k += 1) {
+            result.add(new Entry(key(k), _data.getShort(HEADER_SIZE + k
+                                                        * ENTRY_SIZE + 8),
+                                 weight(k), score(k)));
+        }
+        return result;
+    }
+
+    /** One book entry: a move recommended in a position. */
+    static class Entry {
+        /** An entry recommending the move with code MOVE in the position
+         *  with hash KEY, with WEIGHT and SCORE. */
+        Entry(long key, int move, int weight, int score) {
+            this.key = key;
+            this.move = move & MOVE_MASK;
+            this.weight = Math.min(weight, MAX_WEIGHT);
+            this.score = score;
+        }
+
+        /** Position key, as from Symmetry.key(board, true). */
+        final long key;
+        /** Move code (squares only), in the canonical orientation. */
+        final int move;
+        /** Relative frequency with which to play the move. */
+        final int weight;
+        /** Search score of the move, positive favoring the side to
+         *  move. */
+        final int score;
+    }
+
+    /** Order in which entries appear in a book file. */
+    private static final Comparator<Entry> FILE_ORDER =
+        Comparator.<Entry>comparingLong(e -> e.key)
+        .thenComparingInt(e -> e.move);
+
+    /** Write ENTRIES, combining duplicates, as a book file named NAME. */
+    static void write(String name, List<Entry> entries) throws IOException {
+        List<Entry> merged = combine(entries);
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(name)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(merged.size());
+            out.writeInt(0);
+            for (Entry e : merged) {
+                out.writeLong(e.key);
+                out.writeShort(e.move);
+                out.writeShort(e.weight);
+                out.writeInt(e.score);
+            }
+        }
+    }
+
+    /** Return ENTRIES sorted in file order, with entries for the same
+     *  position and move combined by adding weights and averaging
+     *  scores by weight. */
+    static List<Entry> combine(List<Entry> entries) {
+        ArrayList<Entry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, FILE_ORDER);
+        ArrayList<Entry> result = new ArrayList<>();
+        for (Entry e : sorted) {
+            int n = result.size();
+            Entry last = n == 0 ? null : result.get(n - 1);
+            if (last != null && last.key == e.key && last.move == e.move) {
+                long w = (long) last.weight + e.weight;
+                long score = w == 0 ? e.score
+                    : ((long) last.score * last.weight
+                       + (long) e.score * e.weight) / w;
+                result.set(n - 1, new Entry(e.key, e.move, (int) w,
+                                            (int) score));
+            } else {
+                result.add(e);
+            }
+        }
+        return result;
+    }
+
+    /** Return the entries for positions reached in at most PLIES moves
+     *  from the initial position, found by searching each position to
+     *  DEPTH and keeping its best WIDTH moves.  The best move of each
+     *  position gets weight WIDTH, the next WIDTH - 1, and so on; each
+     *  kept move is then expanded in turn. */
+    static List<Entry> build(int plies, int depth, int width) {
+        ArrayList<Entry> result = new ArrayList<>();
+        MachinePlayer engine = new MachinePlayer();
+        HashMap<Long, Integer> seen = new HashMap<>();
+        expand(new Board(), plies, depth, width, engine, seen, result);
+        return result;
+    }
+
+    /** Add to RESULT the entries for BOARD and its kept successors to
+     *  PLIES more moves, as for build(PLIES, DEPTH, WIDTH), using ENGINE
+     *  to search.  SEEN maps keys of positions already expanded to the
+     *  number of plies they were expanded with, so that a position
+     *  equivalent to one already expanded is not searched again. */
+    private static void expand(Board board, int plies, int depth, int width,
+                               MachinePlayer engine, HashMap<Long, Integer>
+                               seen, List<Entry> result) {
+        int t = Symmetry.orientation(board, true);
+        long key = Symmetry.key(board, t, true);
+        Integer done = seen.get(key);
+        if (plies == 0 || board.winner() != null
+            || done != null && done >= plies) {
+            return;
+        }
+        seen.put(key, plies);
+        int sense = board.turn() == WP ? 1 : -1;
+        ArrayList<int[]> scored = new ArrayList<>();
+        for (Move mv : board.legalMoves()) {
+            board.makeMove(mv);
+            scored.add(new int[] { mv.code(),
+                                   engine.searchValue(board, depth - 1) });
+            board.retract();
+        }
+        scored.sort((a, b) -> Integer.compare(sense * b[1], sense * a[1]));
+        for (int i = 0; i < width && i < scored.size(); i += 1) {
+            int[] best = scored.get(i);
+            result.add(new Entry(key, Symmetry.move(best[0], t), width - i,
+                                 sense * best[1]));
+            board.makeMove(Move.mv(best[0]));
+            expand(board, plies - 1, depth, width, engine, seen, result);
+            board.retract();
+        }
+    }
+
+    /** Build, merge, or prune book files, as directed by ARGS:
+     *      build OUT PLIES DEPTH WIDTH
+     *      merge OUT IN1 IN2 ...
+     *      prune OUT IN MINWEIGHT
+     *  Build creates OUT as for build(PLIES, DEPTH, WIDTH).  Merge
+     *  combines the entries of all the IN files.  Prune copies IN,
+     *  dropping entries whose weight is less than MINWEIGHT. */
+    public static void main(String... args) {
+        try {
+            switch (args.length < 2 ? "" : args[0]) {
+            case "build":
+                int depth = Integer.parseInt(args[3]);
+                if (depth < 1 || depth > MachinePlayer.MAX_DEPTH) {
+                    System.err.printf("Error: DEPTH must be from 1 to %d%n",
+                                      MachinePlayer.MAX_DEPTH);
+                    System.exit(1);
+                }
+                write(args[1], build(Integer.parseInt(args[2]), depth,
+                                     Integer.parseInt(args[4])));
+                break;
+            case "merge":
+                ArrayList<Entry> all = new ArrayList<>();
+                for (int i = 2; i < args.length; i += 1) {
+                    all.addAll(open(args[i]).entries());
+                }
+                write(args[1], all);
+                break;
+            case "prune":
+                int min = Integer.parseInt(args[3]);
+                ArrayList<Entry> kept = new ArrayList<>();
+                for (Entry e : open(args[2]).entries()) {
+                    if (e.weight >= min) {
+                        kept.add(e);
+                    }
+                }
+                write(args[1], kept);
+                break;
+            default:
+                usage();
+            }
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        } catch (NumberFormatException | IndexOutOfBoundsException excp) {
+            usage();
+        }
+    }
+
+    /** Print a usage message for main and exit. */
+    private static void usage() {
+        System.err.println("Usage: java loa.OpeningBook build OUT PLIES DEPTH"
+                           + " WIDTH");
+        System.err.println("       java loa.OpeningBook merge OUT IN...");
+        System.err.println("       java loa.OpeningBook prune OUT IN"
+                           + " MINWEIGHT");
+        System.exit(1);
+    }
+
+    /** The mapped contents of the book file. */
+    private final MappedByteBuffer _data;
+    /** Number of entries. */
+    private final int _size;
+}
@@ -0,0 +1,268 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static loa.Geometry.*;
+import static loa.Piece.*;
+import static loa.Square.*;
+
+/** An evaluation that is a sum of lookups in tables indexed by local
+ *  patterns of pieces.  Each square holds a base-3 digit (DIGIT: 0 for
+ *  empty, 1 for black, 2 for white).  Each line (row, column, or
+ *  diagonal, as numbered by Geometry) has an index whose K-th digit is
+ *  that of its K-th square, and each square has a patch index whose
+ *  digits are those of the 3x3 block of squares around it (off-board
+ *  squares count as empty).  Board keeps all of these indices up to
+ *  date as pieces move, so a score is one lookup per line plus one per
+ *  piece, in the patch table, with no scanning of the board.
+ *
+ *  File layout (big-endian): MAGIC and VERSION, then the table of each
+ *  line in order of line number, of 3**(line length) shorts, then the
+ *  patch table of 3**9 shorts.  Values are positive when they favor
+ *  white, as in MachinePlayer.
+ *  @author Manaal
+ */
+class PatternEvaluator {
+
+    /** First word of every pattern file ("LOAP"). */
+    static final int MAGIC = 0x4c4f4150;
+    /** Format version written and accepted. */
+    static final int VERSION = 1;
+    /** Number of entries in the patch table. */
+    static final int PATCH_SIZE = 19683;
+    /** DIGIT[P.ordinal()] is the base-3 digit of a square holding P. */
+    static final int[] DIGIT = new int[3];
+    /** LINE_WEIGHT[S][A] is the value of the digit of square S in the
+     *  index of line LINE[S][A]. */
+    static final int[][] LINE_WEIGHT = new int[NUM_SQUARES][4];
+    /** PATCH_CENTERS[S] lists the squares whose patches include S, and
+     *  PATCH_WEIGHTS[S][J] is the value of the digit of S in the index
+     *  of the patch around PATCH_CENTERS[S][J]. */
+    static final int[][] PATCH_CENTERS = new int[NUM_SQUARES][],
+        PATCH_WEIGHTS = new int[NUM_SQUARES][];
+
+    /** An evaluator with tables LINES (one per line) and PATCHES. */
+    PatternEvaluator(short[][] lines, short[] patches) {
+        _lines = lines;
+        _patches = patches;
+    }
+
+    /** Return an evaluator whose tables come from rules of thumb rather
+     *  than training: a piece scores by how central it is (through the
+     *  line tables) and by how many friendly neighbors it has (through
+     *  the patch table). */
+    static PatternEvaluator defaults() {
+        short[][] lines = new short[NUM_LINES][];
+        for (int l = 0; l < NUM_LINES; l += 1) {
+            int[] squares = LINE_SQUARES[l];
+            lines[l] = new short[power3(squares.length)];
+            for (int index = 0; index < lines[l].length; index += 1) {
+                int value = 0;
+                for (int k = 0, i = index; k < squares.length; k += 1) {
+                    value += sign(i % 3) * centrality(squares[k]);
+                    i /= 3;
+                }
+                lines[l][index] = (short) value;
+            }
+        }
+        short[] patches = new short[PATCH_SIZE];
+        for (int index = 0; index < PATCH_SIZE; index += 1) {
+            int center = digit(index, PATCH_CENTER), friends = 0;
+            for (int k = 0; k < PATCH_DIGITS; k += 1) {
+                friends += k != PATCH_CENTER && digit(index, k) == center
+                    ? 1 : 0;
+            }
+            int value = friends == 0 ? -ISOLATED
+                : FRIEND * Math.min(friends, MAX_FRIENDS);
+            patches[index] = (short) (sign(center) * value);
+        }
+        return new PatternEvaluator(lines, patches);
+    }
+
+    /** Return the evaluator in the file named NAME or, if there is no
+     *  such file, in the resource with that name.  Throws IOException if
+     *  neither can be read or is a pattern file. */
+    static PatternEvaluator open(String name) throws IOException {
+        InputStream in;
+        if (new File(name).exists()) {
+            in = new FileInputStream(name);
+        } else {
+            in = PatternEvaluator.class.getClassLoader()
+                .getResourceAsStream(name);
+            if (in == null) {
+                throw new IOException("no such file or resource: " + name);
+            }
+        }
+        try (DataInputStream data =
+             new DataInputStream(new BufferedInputStream(in))) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                throw new IOException("not a pattern file: " + name);
+            }
+            short[][] lines = new short[NUM_LINES][];
+            for (int l = 0; l < NUM_LINES; l += 1) {
+                lines[l] = readTable(data, power3(LINE_SQUARES[l].length));
+            }
+            short[] patches = readTable(data, PATCH_SIZE);
+            if (data.read() != -1) {
+                throw new IOException("not a pattern file: " + name);
+            }
+            return new PatternEvaluator(lines, patches);
+        } catch (EOFException excp) {
+            throw new IOException("not a pattern file: " + name);
+        }
+    }
+
+    /** Write my tables to the file named NAME. */
+    void write(String name) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(name)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            for (short[] table : _lines) {
+                writeTable(out, table);
+            }
+            writeTable(out, _patches);
+        }
+    }
+
+    /** Return the score of BOARD, positive favoring white, ignoring
+     *  whether the game is over. */
+    int score(Board board) {
+        int score = 0;
+        for (int l = 0; l < NUM_LINES; l += 1) {
+            score += _lines[l][board.lineIndex(l)];
+        }
+        long pieces = board.occupied(BP) | board.occupied(WP);
+        while (pieces != 0) {
+            int s = Long.numberOfTrailingZeros(pieces);
+            pieces &= pieces - 1;
+            score += _patches[board.patchIndex(s)];
+        }
+        return score;
+    }
+
+    /** Return the table of line L, indexed by Board.lineIndex(L). */
+    short[] lineTable(int l) {
+        return _lines[l];
+    }
+
+    /** Return the patch table, indexed by Board.patchIndex. */
+    short[] patchTable() {
+        return _patches;
+    }
+
+    /** Return N shorts read from IN. */
+    private static short[] readTable(DataInputStream in, int n)
+        throws IOException {
+        short[] table = new short[n];
+        for (int i = 0; i < n; i += 1) {
+            table[i] = in.readShort();
+        }
+        return table;
+    }
+
+    /** Write TABLE to OUT. */
+    private static void writeTable(DataOutputStream out, short[] table)
+        throws IOException {
+        for (short value : table) {
+            out.writeShort(value);
+        }
+    }
+
+    /** Return 3**N. */
+    static int power3(int n) {
+        int result = 1;
+        for (int i = 0; i < n; i += 1) {
+            result *= 3;
+        }
+        return result;
+    }
+
+    /** Return digit K of INDEX, in base 3. */
+    private static int digit(int index, int k) {
+        return index / power3(k) % 3;
+    }
+
+    /** Return the sign (1 for white, -1 for black, 0 for empty) of a
+     *  square with digit D. */
+    private static int sign(int d) {
+        return d == DIGIT[WP.ordinal()] ? 1 : d == DIGIT[BP.ordinal()] ? -1
+            : 0;
+    }
+
+    /** Return 0 for an edge square of the board, rising by 1 for each
+     *  ring nearer the center. */
+    private static int centrality(int s) {
+        int dc = Math.abs(2 * COL[s] - (BOARD_SIZE - 1)),
+            dr = Math.abs(2 * ROW[s] - (BOARD_SIZE - 1));
+        return (BOARD_SIZE - 1 - Math.max(dc, dr)) / 2;
+    }
+
+    /** Generate a pattern file, as directed by ARGS:
+     *      defaults OUT
+     *  writes to OUT the untrained tables of defaults(), as a starting
+     *  point for training. */
+    public static void main(String... args) {
+        if (args.length != 2 || !args[0].equals("defaults")) {
+            System.err.println("Usage: java loa.PatternEvaluator "
+                               + "defaults OUT");
+            System.exit(1);
+        }
+        try {
+            defaults().write(args[1]);
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Number of digits in a patch index. */
+    private static final int PATCH_DIGITS = 9;
+    /** Position of the digit of the center square in a patch index. */
+    private static final int PATCH_CENTER = 4;
+    /** Default value of a piece with no friendly neighbors. */
+    private static final int ISOLATED = 12;
+    /** Default value of each friendly neighbor of a piece, counting at
+     *  most MAX_FRIENDS of them. */
+    private static final int FRIEND = 3;
+    /** Most friendly neighbors counted by default. */
+    private static final int MAX_FRIENDS = 3;
+
+    static {
+        DIGIT[BP.ordinal()] = 1;
+        DIGIT[WP.ordinal()] = 2;
+        DIGIT[EMP.ordinal()] = 0;
+        for (int s = 0; s < NUM_SQUARES; s += 1) {
+            for (int a = 0; a < 4; a += 1) {
+                LINE_WEIGHT[s][a] = power3(LINE_POS[s][a]);
+            }
+            int n = NEIGHBORS[s].length + 1;
+            PATCH_CENTERS[s] = new int[n];
+            PATCH_WEIGHTS[s] = new int[n];
+            PATCH_CENTERS[s][0] = s;
+            PATCH_WEIGHTS[s][0] = power3(PATCH_CENTER);
+            for (int j = 1; j < n; j += 1) {
+                int center = NEIGHBORS[s][j - 1];
+                int dc = COL[s] - COL[center], dr = ROW[s] - ROW[center];
+                PATCH_CENTERS[s][j] = center;
+                PATCH_WEIGHTS[s][j] = power3(dc + 1 + 3 * (dr + 1));
+            }
+        }
+    }
+
+    /** Line tables, by line number. */
+    private final short[][] _lines;
+    /** Patch table. */
+    private final short[] _patches;
+}
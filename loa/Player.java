@@ -19,6 +19,32 @@ public abstract class Player {
      *  that side() == getBoard.turn(). Assumes the game has not ended. */
     abstract String getMove();
 
+    /** Prepare to choose a move by getMove, forgetting any earlier call
+     *  to moveNow.  Called before moveNow can reach me for that move.
+     *  By default, does nothing. */
+    void startMove() {
+    }
+
+    /** Stop, and wait for the end of, any thinking I am doing in the
+     *  background about the game's current position, which is about to
+     *  change other than by a move, or which I am leaving.  By default,
+     *  does nothing. */
+    void stopBackground() {
+    }
+
+    /** Stop thinking about the move getMove is choosing as soon as
+     *  possible, and return the best move found so far.  May be called
+     *  from any thread.  By default, does nothing. */
+    void moveNow() {
+    }
+
+    /** Return the latest report of the progress of getMove's search, or
+     *  null if there is none.  May be called from any thread.  By
+     *  default, returns null. */
+    SearchProgress progress() {
+        return null;
+    }
+
     /** Return which side I'm playing. */
     Piece side() {
         return _side;
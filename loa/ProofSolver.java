@@ -0,0 +1,293 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.util.Arrays;
+
+/** A depth-first proof-number (df-pn) solver that decides whether the
+ *  side to move (the attacker) can force a win, within a budget of
+ *  expanded nodes.  Ties, including those caused by the move limit,
+ *  count as failures to win.
+ *
+ *  Each position has a proof number (an estimate of how many more
+ *  positions must be solved to show the attacker wins) and a disproof
+ *  number (likewise, to show it does not).  Where the attacker is to
+ *  move, the proof number is the least proof number of the successors
+ *  and the disproof number the sum of theirs; where the defender is to
+ *  move, the reverse.  The search repeatedly descends into the most
+ *  proving successor, with thresholds that bring it back up only when
+ *  the choice may change.  Numbers are kept in a transposition table
+ *  keyed by position, attacker, and number of moves made, so that
+ *  results stay correct under the move limit.
+ *  @author Manaal
+ */
+class ProofSolver {
+
+    /** Result: the side to move can force a win. */
+    static final int PROVEN = 1;
+    /** Result: the side to move cannot force a win. */
+    static final int DISPROVEN = -1;
+    /** Result: the budget ran out first. */
+    static final int UNKNOWN = 0;
+
+    /** Proof and disproof numbers at least this large are infinite. */
+    static final int INFINITY = 100_000_000;
+
+    /** A solver whose transposition table has 2**LOGSIZE slots. */
+    ProofSolver(int logSize) {
+        int size = 1 << logSize;
+        _mask = size - 1;
+        _keys = new long[size];
+        _proofs = new int[size];
+        _disproofs = new int[size];
+        _moves = new int[size];
+    }
+
+    /** Try to decide whether the side to move on BOARD can force a win,
+     *  expanding at most MAXNODES positions.  BOARD is restored before
+     *  returning.  Returns PROVEN, DISPROVEN, or UNKNOWN; after PROVEN,
+     *  winningMove() is a move that keeps the win. */
+    int solve(Board board, long maxNodes) {
+        return solve(board, maxNodes, Long.MAX_VALUE);
+    }
+
+    /** Solve BOARD as for solve(BOARD, MAXNODES), also giving up at
+     *  time DEADLINE (in the units of System.currentTimeMillis()). */
+    int solve(Board board, long maxNodes, long deadline) {
+        _board = board;
+        _nodes = 0;
+        _maxNodes = maxNodes;
+        _deadline = deadline;
+        _nextClock = CLOCK_INTERVAL;
+        _winningMove = 0;
+        _attacker = board.turn();
+        if (board.winner() != null) {
+            return board.winner() == board.turn() ? PROVEN : DISPROVEN;
+        }
+        search(0, INFINITY, INFINITY);
+        if (_proof == 0) {
+            _winningMove = _moves[slot(key())];
+            return PROVEN;
+        } else if (_disproof == 0) {
+            return DISPROVEN;
+        }
+        return UNKNOWN;
+    }
+
+    /** Return the code of a winning move found by the last solve that
+     *  returned PROVEN. */
+    int winningMove() {
+        return _winningMove;
+    }
+
+    /** Return the number of positions expanded by the last solve. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Remove all entries from my table. */
+    void clear() {
+        Arrays.fill(_keys, 0L);
+    }
+
+    /** Expand the current position of _board, at distance PLY from the
+     *  root, until its proof number reaches PROOFLIMIT or its disproof
+     *  number reaches DISPROOFLIMIT, or the budget runs out, recording
+     *  its numbers in the table and in _proof and _disproof.  The
+     *  numbers of the successors are kept on a stack while the position
+     *  is expanded, so that losing a table entry to a collision costs a
+     *  re-expansion rather than progress. */
+    private void search(int ply, int proofLimit, int disproofLimit) {
+        _nodes += 1;
+        if (_board.winner() != null) {
+            storeTerminal(key());
+            return;
+        }
+        if (ply == _children.length) {
+            _children = Arrays.copyOf(_children, 2 * ply);
+            _childProofs = Arrays.copyOf(_childProofs, 2 * ply);
+            _childDisproofs = Arrays.copyOf(_childDisproofs, 2 * ply);
+        }
+        if (_children[ply] == null) {
+            _children[ply] = new int[Board.MAX_MOVES];
+            _childProofs[ply] = new int[Board.MAX_MOVES];
+            _childDisproofs[ply] = new int[Board.MAX_MOVES];
+        }
+        int[] moves = _children[ply],
+            proofs = _childProofs[ply], disproofs = _childDisproofs[ply];
+        long key = key();
+        boolean attacking = _board.turn() == _attacker;
+        int n = _board.legalMoves(moves);
+        for (int i = 0; i < n; i += 1) {
+            _board.makeMove(moves[i]);
+            long childKey = key();
+            int slot = slot(childKey);
+            if (slot >= 0) {
+                proofs[i] = _proofs[slot];
+                disproofs[i] = _disproofs[slot];
+            } else if (_board.winner() != null) {
+                storeTerminal(childKey);
+                proofs[i] = _proof;
+                disproofs[i] = _disproof;
+            } else {
+                proofs[i] = disproofs[i] = 1;
+            }
+            _board.retract();
+        }
+
+        while (true) {
+            int least = INFINITY, sum = 0;
+            int best = -1, secondLeast = INFINITY;
+            for (int i = 0; i < n; i += 1) {
+                int select = attacking ? proofs[i] : disproofs[i];
+                sum = Math.min(INFINITY,
+                               sum + (attacking ? disproofs[i] : proofs[i]));
+                if (select < least) {
+                    secondLeast = least;
+                    least = select;
+                    best = i;
+                } else if (select < secondLeast) {
+                    secondLeast = select;
+                }
+            }
+            int proof = attacking ? least : sum,
+                disproof = attacking ? sum : least;
+            store(key, proof, disproof,
+                  attacking && proof == 0 ? moves[best] : 0);
+            if (proof >= proofLimit || disproof >= disproofLimit
+                || exhausted()) {
+                return;
+            }
+            _board.makeMove(moves[best]);
+            if (attacking) {
+                search(ply + 1, Math.min(proofLimit, secondLeast + 1),
+                       Math.min(INFINITY,
+                                disproofLimit - disproof + disproofs[best]));
+            } else {
+                search(ply + 1,
+                       Math.min(INFINITY,
+                                proofLimit - proof + proofs[best]),
+                       Math.min(disproofLimit, secondLeast + 1));
+            }
+            _board.retract();
+            proofs[best] = _proof;
+            disproofs[best] = _disproof;
+        }
+    }
+
+    /** Return true iff the budget of nodes or time has run out.  The
+     *  clock is consulted only every CLOCK_INTERVAL nodes, and when time
+     *  is up, the node budget is cut to the nodes already expanded. */
+    private boolean exhausted() {
+        if (_nodes >= _nextClock) {
+            _nextClock = _nodes + CLOCK_INTERVAL;
+            if (_deadline != Long.MAX_VALUE
+                && System.currentTimeMillis() >= _deadline) {
+                _maxNodes = _nodes;
+            }
+        }
+        return _nodes >= _maxNodes;
+    }
+
+    /** Record the numbers of the finished game on _board, whose table
+     *  key is KEY. */
+    private void storeTerminal(long key) {
+        if (_board.winner() == _attacker) {
+            store(key, 0, INFINITY, 0);
+        } else {
+            store(key, INFINITY, 0, 0);
+        }
+    }
+
+    /** Return the table key of the current position of _board. */
+    private long key() {
+        long key = _board.hashKey() ^ _board.movesMade() * PLY_KEY;
+        return _attacker == Piece.WP ? ~key : key;
+    }
+
+    /** Return the slot holding an entry for KEY, or -1 if none.  A
+     *  position not in the table has proof and disproof numbers 1. */
+    private int slot(long key) {
+        int slot = bucket(key);
+        if (_keys[slot] == key) {
+            return slot;
+        } else if (_keys[slot + 1] == key) {
+            return slot + 1;
+        }
+        return -1;
+    }
+
+    /** Return the first of the two slots that may hold KEY. */
+    private int bucket(long key) {
+        return (int) (key ^ (key >>> 32)) & _mask & ~1;
+    }
+
+    /** Return true iff the entry in SLOT is for a solved position. */
+    private boolean solved(int slot) {
+        return _proofs[slot] == 0 || _disproofs[slot] == 0;
+    }
+
+    /** Record PROOF and DISPROOF numbers, and best move MOVE, for the
+     *  position with KEY.  A new entry displaces an unsolved one in its
+     *  bucket in preference to a solved one, since solved positions are
+     *  the most costly to rediscover.  Also sets _proof and _disproof. */
+    private void store(long key, int proof, int disproof, int move) {
+        _proof = proof;
+        _disproof = disproof;
+        int slot = slot(key);
+        if (slot < 0) {
+            slot = bucket(key);
+            if (solved(slot) && !solved(slot + 1)) {
+                slot += 1;
+            } else if (solved(slot) == solved(slot + 1)) {
+                _keys[slot + 1] = _keys[slot];
+                _proofs[slot + 1] = _proofs[slot];
+                _disproofs[slot + 1] = _disproofs[slot];
+                _moves[slot + 1] = _moves[slot];
+            }
+        }
+        _keys[slot] = key;
+        _proofs[slot] = proof;
+        _disproofs[slot] = disproof;
+        _moves[slot] = move;
+    }
+
+    /** Number of nodes expanded between checks of the clock. */
+    private static final int CLOCK_INTERVAL = 1024;
+    /** Multiplier mixing the number of moves made into table keys. */
+    private static final long PLY_KEY = 0x9e3779b97f4a7c15L;
+
+    /** Mask selecting a slot from a key. */
+    private final int _mask;
+    /** Keys of the stored positions. */
+    private final long[] _keys;
+    /** Proof numbers of the stored positions. */
+    private final int[] _proofs;
+    /** Disproof numbers of the stored positions. */
+    private final int[] _disproofs;
+    /** Winning moves of the stored positions proved won, else 0. */
+    private final int[] _moves;
+
+    /** The board being solved. */
+    private Board _board;
+    /** The side trying to win. */
+    private Piece _attacker;
+    /** Positions expanded so far. */
+    private long _nodes;
+    /** Budget of positions to expand. */
+    private long _maxNodes;
+    /** Time at which to give up, or Long.MAX_VALUE for none. */
+    private long _deadline;
+    /** Value of _nodes at which to consult the clock next. */
+    private long _nextClock;
+    /** Winning move found by the last solve, or 0. */
+    private int _winningMove;
+    /** Proof and disproof numbers most recently stored. */
+    private int _proof, _disproof;
+    /** Successor moves of the positions on the current path, by ply. */
+    private int[][] _children = new int[16][];
+    /** Proof numbers of the successors in _children. */
+    private int[][] _childProofs = new int[16][];
+    /** Disproof numbers of the successors in _children. */
+    private int[][] _childDisproofs = new int[16][];
+}
@@ -0,0 +1,89 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import static loa.Geometry.*;
+
+/** A bounded cache, shared by all Boards and threads, of the connectivity
+ *  of sets of pieces of one color.  The regions of a side depend only on
+ *  which squares that side occupies, so the key is just that side's
+ *  occupancy mask (bit S set iff the side has a piece on square index
+ *  S), and the value is a summary holding the number of regions and the
+ *  size of the largest one.
+ *
+ *  The table needs no locks: each slot holds the summary and the key
+ *  XORed with the summary, and a lookup accepts a slot only if the two
+ *  agree with the key, so an entry torn by concurrent writers reads as
+ *  a miss.
+ *  @author Manaal
+ */
+final class RegionCache {
+
+    /** Log base 2 of the number of slots. */
+    static final int LOG_SIZE = 16;
+
+    /** Return the summary of the regions formed by the squares in
+     *  OCCUPIED, from the cache if possible. */
+    static int summary(long occupied) {
+        int slot = (int) ((occupied * SPREAD) >>> (64 - LOG_SIZE));
+        long data = DATA[slot];
+        if ((CHECKS[slot] ^ data) == occupied) {
+            return (int) data;
+        }
+        int summary = compute(occupied);
+        DATA[slot] = summary;
+        CHECKS[slot] = occupied ^ summary;
+        return summary;
+    }
+
+    /** Return the number of regions in SUMMARY. */
+    static int count(int summary) {
+        return summary >>> COUNT_SHIFT;
+    }
+
+    /** Return the size of the largest region in SUMMARY (0 if there are
+     *  none). */
+    static int largest(int summary) {
+        return summary & LARGEST_MASK;
+    }
+
+    /** Return the summary of the regions formed by the squares in
+     *  OCCUPIED, computing it from scratch. */
+    static int compute(long occupied) {
+        int count = 0, largest = 0;
+        while (occupied != 0) {
+            long region = nextRegion(occupied);
+            occupied &= ~region;
+            count += 1;
+            largest = Math.max(largest, Long.bitCount(region));
+        }
+        return (count << COUNT_SHIFT) | largest;
+    }
+
+    /** Return the region of OCCUPIED containing its lowest square. */
+    static long nextRegion(long occupied) {
+        long region = Long.lowestOneBit(occupied);
+        while (true) {
+            long grown = grow(region) & occupied;
+            if (grown == region) {
+                return region;
+            }
+            region = grown;
+        }
+    }
+
+    /** Not instantiable. */
+    private RegionCache() {
+    }
+
+    /** Position of the region count in a summary. */
+    private static final int COUNT_SHIFT = 8;
+    /** Mask for the largest region size in a summary. */
+    private static final int LARGEST_MASK = (1 << COUNT_SHIFT) - 1;
+    /** Odd multiplier that spreads occupancy masks over the slots. */
+    private static final long SPREAD = 0x9e3779b97f4a7c15L;
+    /** Summaries, by slot. */
+    private static final long[] DATA = new long[1 << LOG_SIZE];
+    /** Keys XORed with DATA, by slot. */
+    private static final long[] CHECKS = new long[1 << LOG_SIZE];
+}
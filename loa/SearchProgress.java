@@ -0,0 +1,90 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+/** A snapshot of the progress of a search for a move: the result of its
+ *  last completed iteration and the work done so far.  Snapshots are
+ *  immutable, so that a searching thread may hand them to any other
+ *  thread (such as the GUI's) without locking.
+ *  @author Manaal
+ */
+class SearchProgress {
+
+    /** Progress of a search whose last completed iteration went to
+     *  DEPTH, found the move with code MOVE with value SCORE (positive
+     *  favoring white) and principal variation PV (codes, starting with
+     *  MOVE), having searched NODES positions in MILLIS milliseconds. */
+    SearchProgress(int move, int score, int depth, int[] pv, long nodes,
+                   long millis) {
+        _move = move;
+        _score = score;
+        _depth = depth;
+        _pv = pv;
+        _nodes = nodes;
+        _millis = millis;
+    }
+
+    /** Return my iteration's result after NODES positions have been
+     *  searched in MILLIS milliseconds. */
+    SearchProgress at(long nodes, long millis) {
+        return new SearchProgress(_move, _score, _depth, _pv, nodes, millis);
+    }
+
+    /** Return the best move found so far. */
+    Move move() {
+        return Move.mv(_move & ~Move.CAPTURE_FLAG);
+    }
+
+    /** Return its value, positive favoring white. */
+    int score() {
+        return _score;
+    }
+
+    /** Return the depth of the last completed iteration. */
+    int depth() {
+        return _depth;
+    }
+
+    /** Return the number of positions searched. */
+    long nodes() {
+        return _nodes;
+    }
+
+    /** Return the number of positions searched per second. */
+    long nodesPerSecond() {
+        return _nodes * Game.MILLISEC / Math.max(1, _millis);
+    }
+
+    /** Return the expected line of play, starting with move(), as a
+     *  string of moves separated by blanks. */
+    String pv() {
+        StringBuilder result = new StringBuilder();
+        for (int move : _pv) {
+            if (result.length() > 0) {
+                result.append(' ');
+            }
+            result.append(Move.mv(move & ~Move.CAPTURE_FLAG));
+        }
+        return result.toString();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("depth %d score %d nodes %d (%d/s) pv %s",
+                             _depth, _score, _nodes, nodesPerSecond(),
+                             pv());
+    }
+
+    /** Code of the best move. */
+    private final int _move;
+    /** Value of the best move. */
+    private final int _score;
+    /** Depth of the last completed iteration. */
+    private final int _depth;
+    /** Codes of the expected line of play. */
+    private final int[] _pv;
+    /** Positions searched. */
+    private final long _nodes;
+    /** Time taken so far in milliseconds. */
+    private final long _millis;
+}
@@ -0,0 +1,192 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import static loa.Piece.*;
+import static loa.Square.*;
+
+/** The eight symmetries of the board, acting on occupancy masks, square
+ *  indices, and move codes, and the canonical form of a position under
+ *  them.  The rules of Lines of Action do not depend on the orientation
+ *  of the board, so positions that differ only by a reflection or
+ *  rotation have the same value, and corresponding moves, which lets
+ *  caches of positions hold one entry for all of them.
+ *
+ *  Orientation T (0 .. NUM_ORIENTATIONS-1) exchanges columns and rows
+ *  if bit TRANSPOSE of T is set, then reverses the columns if bit MIRROR
+ *  is set, then reverses the rows if bit FLIP is set; orientation 0 is
+ *  the identity.  The canonical orientation of a pair of masks is the
+ *  one that makes the first mask, and then the second, least (as
+ *  unsigned numbers), taking the least such T in case of ties.
+ *  @author Manaal
+ */
+final class Symmetry {
+
+    /** Number of orientations. */
+    static final int NUM_ORIENTATIONS = 8;
+    /** Bits of an orientation. */
+    static final int MIRROR = 1, FLIP = 2, TRANSPOSE = 4;
+
+    /** Return MASK with its squares moved by orientation T. */
+    static long transform(long mask, int t) {
+        if ((t & TRANSPOSE) != 0) {
+            mask = transpose(mask);
+        }
+        if ((t & MIRROR) != 0) {
+            mask = mirror(mask);
+        }
+        if ((t & FLIP) != 0) {
+            mask = Long.reverseBytes(mask);
+        }
+        return mask;
+    }
+
+    /** Return the index of the square to which orientation T moves the
+     *  square with index S. */
+    static int square(int s, int t) {
+        return SQUARE[t][s];
+    }
+
+    /** Return the code of the move to which orientation T takes the move
+     *  with code CODE, keeping its capture flag.  The code 0 (no move)
+     *  is unchanged. */
+    static int move(int code, int t) {
+        if (t == 0 || code == 0) {
+            return code;
+        }
+        int from = (code >> Move.FROM_SHIFT) & Move.SQUARE_MASK,
+            to = code & Move.SQUARE_MASK;
+        return (code & Move.CAPTURE_FLAG)
+            | SQUARE[t][from] << Move.FROM_SHIFT | SQUARE[t][to];
+    }
+
+    /** Return the orientation that undoes orientation T. */
+    static int inverse(int t) {
+        return INVERSE[t];
+    }
+
+    /** Return the canonical orientation of the masks FIRST and
+     *  SECOND. */
+    static int orientation(long first, long second) {
+        long[] firsts = { first, transpose(first) },
+            seconds = { second, transpose(second) };
+        int best = 0;
+        long bestFirst = first, bestSecond = second;
+        for (int t = 1; t < NUM_ORIENTATIONS; t += 1) {
+            long f = firsts[t >> 2], s = seconds[t >> 2];
+            if ((t & MIRROR) != 0) {
+                f = mirror(f);
+                s = mirror(s);
+            }
+            if ((t & FLIP) != 0) {
+                f = Long.reverseBytes(f);
+                s = Long.reverseBytes(s);
+            }
+            int c = Long.compareUnsigned(f, bestFirst);
+            if (c < 0 || c == 0 && Long.compareUnsigned(s, bestSecond) < 0) {
+                best = t;
+                bestFirst = f;
+                bestSecond = s;
+            }
+        }
+        return best;
+    }
+
+    /** Return the canonical orientation of BOARD.  If COLORBLIND, the
+     *  pieces are told apart only as those of the side to move and those
+     *  of its opponent, so that the position with the colors of all
+     *  pieces and of the side to move exchanged has the same form.
+     *  Otherwise, the black pieces are those of the first mask. */
+    static int orientation(Board board, boolean colorBlind) {
+        Piece first = colorBlind ? board.turn() : BP;
+        return orientation(board.occupied(first),
+                           board.occupied(first.opposite()));
+    }
+
+    /** Return the hash key of BOARD in orientation T, as for
+     *  orientation(BOARD, COLORBLIND).  When T is the canonical
+     *  orientation, this key is the same for every position equivalent
+     *  to BOARD. */
+    static long key(Board board, int t, boolean colorBlind) {
+        Piece first = colorBlind ? board.turn() : BP;
+        long h = mix(transform(board.occupied(first), t));
+        h = mix(h ^ transform(board.occupied(first.opposite()), t));
+        return colorBlind || board.turn() == BP ? h : h ^ WHITE_TO_MOVE;
+    }
+
+    /** Return the canonical hash key of BOARD, as for
+     *  key(BOARD, orientation(BOARD, COLORBLIND), COLORBLIND). */
+    static long key(Board board, boolean colorBlind) {
+        return key(board, orientation(board, colorBlind), colorBlind);
+    }
+
+    /** Return MASK reflected in the diagonal from a1 to h8, so that
+     *  column and row numbers are exchanged. */
+    static long transpose(long mask) {
+        long t = TRANSPOSE_4 & (mask ^ (mask << 28));
+        mask ^= t ^ (t >>> 28);
+        t = TRANSPOSE_2 & (mask ^ (mask << 14));
+        mask ^= t ^ (t >>> 14);
+        t = TRANSPOSE_1 & (mask ^ (mask << 7));
+        return mask ^ t ^ (t >>> 7);
+    }
+
+    /** Return MASK with its columns in reverse order. */
+    static long mirror(long mask) {
+        return Long.reverseBytes(Long.reverse(mask));
+    }
+
+    /** Return a scrambled form of X that differs in about half its bits
+     *  from that of any other value (the finalizer of SplitMix64). */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xbf58476d1ce4e5b9L;
+        x = (x ^ (x >>> 27)) * 0x94d049bb133111ebL;
+        return x ^ (x >>> 31);
+    }
+
+    /** Not instantiable. */
+    private Symmetry() {
+    }
+
+    /** Masks of the bits exchanged by the three steps of transpose,
+     *  which swap 4x4, 2x2, and 1x1 blocks across the diagonal. */
+    private static final long TRANSPOSE_4 = 0x0f0f0f0f00000000L,
+        TRANSPOSE_2 = 0x3333000033330000L,
+        TRANSPOSE_1 = 0x5500550055005500L;
+    /** Mixed into the keys of positions with white to move. */
+    private static final long WHITE_TO_MOVE = 0x2545f4914f6cdd1dL;
+
+    /** SQUARE[T][S] is square(S, T). */
+    private static final int[][] SQUARE =
+        new int[NUM_ORIENTATIONS][NUM_SQUARES];
+    /** INVERSE[T] is inverse(T). */
+    private static final int[] INVERSE = new int[NUM_ORIENTATIONS];
+
+    static {
+        for (int t = 0; t < NUM_ORIENTATIONS; t += 1) {
+            for (int s = 0; s < NUM_SQUARES; s += 1) {
+                int c = s % BOARD_SIZE, r = s / BOARD_SIZE;
+                if ((t & TRANSPOSE) != 0) {
+                    int tmp = c;
+                    c = r;
+                    r = tmp;
+                }
+                if ((t & MIRROR) != 0) {
+                    c = BOARD_SIZE - 1 - c;
+                }
+                if ((t & FLIP) != 0) {
+                    r = BOARD_SIZE - 1 - r;
+                }
+                SQUARE[t][s] = c + BOARD_SIZE * r;
+            }
+        }
+        for (int t = 0; t < NUM_ORIENTATIONS; t += 1) {
+            for (int u = 0; u < NUM_ORIENTATIONS; u += 1) {
+                if (SQUARE[u][SQUARE[t][1]] == 1
+                    && SQUARE[u][SQUARE[t][BOARD_SIZE]] == BOARD_SIZE) {
+                    INVERSE[t] = u;
+                }
+            }
+        }
+    }
+}
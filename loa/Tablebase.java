@@ -0,0 +1,570 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import static loa.Geometry.*;
+import static loa.Piece.*;
+import static loa.Square.*;
+import static loa.Utils.*;
+
+/** An endgame table giving the exact outcome, ignoring the move limit,
+ *  of every position with few pieces, and the tool that generates it
+ *  (see main).
+ *
+ *  A material class (NB, NW) holds every placement of NB black and NW
+ *  white pieces with either side to move.  Classes in which a side has
+ *  a single piece are already decided and are computed on demand; the
+ *  file holds the classes with at least two pieces a side.  Within a
+ *  class, positions are numbered by a minimal perfect hash: the rank of
+ *  the set of black squares among all NB-subsets of the board, then the
+ *  rank of the white squares among NW-subsets of the remaining squares,
+ *  then the side to move.  Since values are for the side to move, a
+ *  position has the value of its canonical form (see storedIndex), so
+ *  the file holds only the classes with NB >= NW, and the table gives
+ *  only canonical positions their values, the others holding 0.  Each
+ *  position has a one-byte value (see
+ *  probe), and the values of each class are stored in blocks of
+ *  BLOCK_SIZE positions.  A block lists the distinct values it uses
+ *  (its palette) and packs each position's palette index into 0, 1, 2,
+ *  4, or 8 bits, so that any value can still be fetched directly.
+ *
+ *  File layout (big-endian): MAGIC, VERSION, the number of classes, and
+ *  for each class NB, NW, its number of blocks, and the offset of its
+ *  block index, all ints.  A block index is one int offset per block
+ *  plus a final end offset; a block is the number of bits per position,
+ *  the palette size, the palette, and the packed indices.
+ *  @author Manaal
+ */
+class Tablebase {
+
+    /** First word of a tablebase file ("LOAT"). */
+    static final int MAGIC = 0x4c4f4154;
+    /** Format version written and accepted. */
+    static final int VERSION = 2;
+    /** Positions per compressed block. */
+    static final int BLOCK_SIZE = 4096;
+    /** Result of probe when the position is not in the table. */
+    static final int UNKNOWN = Integer.MIN_VALUE;
+    /** Greatest distance to mate that can be stored. */
+    static final int MAX_DISTANCE = 126;
+
+    /** A tablebase whose contents are mapped in DATA. */
+    private Tablebase(MappedByteBuffer data) {
+        _data = data;
+        int n = data.getInt(8);
+        for (int i = 0; i < n; i += 1) {
+            int pos = 12 + 16 * i;
+            int nb = data.getInt(pos), nw = data.getInt(pos + 4);
+            _classes.put(classKey(nb, nw), data.getInt(pos + 12));
+            _maxPieces = Math.max(_maxPieces, nb + nw);
+        }
+    }
+
+    /** Return the tablebase in the file named NAME.  Throws IOException
+     *  if it cannot be read or is not a tablebase. */
+    static Tablebase open(String name) throws IOException {
+        try (FileChannel chan =
+             FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+            MappedByteBuffer data =
+                chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+            if (chan.size() < 12 || data.getInt(0) != MAGIC
+                || data.getInt(4) != VERSION) {
+                throw new IOException("not a tablebase: " + name);
+            }
+            return new Tablebase(data);
+        }
+    }
+
+    /** Return the largest total number of pieces covered. */
+    int maxPieces() {
+        return _maxPieces;
+    }
+
+    /** Return the value of BOARD for the side to move, ignoring the move
+     *  limit, or UNKNOWN if the position is not covered.  A value
+     *  D + 1 > 0 means the side to move wins in D more moves (0 if it
+     *  has already won); -(D + 1) means it loses in D more moves; 0
+     *  means neither side can force a win. */
+    int probe(Board board) {
+        return probe(board.occupied(BP), board.occupied(WP), board.turn());
+    }
+
+    /** Return the value, as for probe(Board), of the position in which
+     *  black occupies the squares of the mask BLACK and white those of
+     *  WHITE, with TURN to move. */
+    int probe(long black, long white, Piece turn) {
+        int nb = Long.bitCount(black), nw = Long.bitCount(white);
+        int side = turn == BP ? 0 : 1;
+        if (nb == 0 || nw == 0 || nb + nw > _maxPieces) {
+            return UNKNOWN;
+        } else if (nb == 1 || nw == 1) {
+            return terminal(squares(black), nb, squares(white), nw, side);
+        }
+        Integer index = _classes.get(storedClass(nb, nw));
+        if (index == null) {
+            return UNKNOWN;
+        }
+        return value(index, storedIndex(black, white, side));
+    }
+
+    /** Return the stored value of position POSN in the class whose block
+     *  index starts at byte INDEX. */
+    private int value(int index, long posn) {
+        int block = (int) (posn / BLOCK_SIZE), k = (int) (posn % BLOCK_SIZE);
+        int start = _data.getInt(index + 4 * block);
+        int bits = _data.get(start), palette = start + 2;
+        if (bits == 0) {
+            return _data.get(palette);
+        }
+        int packed = palette + (_data.get(start + 1) & 0xff);
+        int perByte = 8 / bits;
+        int b = _data.get(packed + k / perByte) & 0xff;
+        int i = (b >> (k % perByte * bits)) & ((1 << bits) - 1);
+        return _data.get(palette + i);
+    }
+
+    /* Position numbering and rules on small piece lists. */
+
+    /** Return the key identifying class (NB, NW). */
+    private static int classKey(int nb, int nw) {
+        return nb * NUM_SQUARES + nw;
+    }
+
+    /** Return the key of the class in which positions of class (NB, NW)
+     *  are stored. */
+    private static int storedClass(int nb, int nw) {
+        return classKey(Math.max(nb, nw), Math.min(nb, nw));
+    }
+
+    /** Return the number of positions in class (NB, NW). */
+    static long classSize(int nb, int nw) {
+        return 2 * BINOM[NUM_SQUARES][nb] * BINOM[NUM_SQUARES - nb][nw];
+    }
+
+    /** Return the index within its class of the position with black
+     *  pieces on the squares of the mask BLACK and white pieces on those
+     *  of WHITE, with SIDE (0 for black, 1 for white) to move. */
+    static long positionIndex(long black, long white, int side) {
+        int nb = Long.bitCount(black), nw = Long.bitCount(white);
+        long rb = 0, rw = 0;
+        int i = 0;
+        for (long m = black; m != 0; m &= m - 1, i += 1) {
+            rb += BINOM[Long.numberOfTrailingZeros(m)][i + 1];
+        }
+        i = 0;
+        for (long m = white; m != 0; m &= m - 1, i += 1) {
+            int s = Long.numberOfTrailingZeros(m);
+            rw += BINOM[s - Long.bitCount(black & (bit(s) - 1))][i + 1];
+        }
+        return (rb * BINOM[NUM_SQUARES - nb][nw] + rw) * 2 + side;
+    }
+
+    /** Return the index, within the class given by storedClass, at which
+     *  the table holds the value of the position with BLACK and WHITE
+     *  pieces (as for positionIndex) and SIDE to move.  This is the
+     *  index of its canonical form: the colors of the pieces and of the
+     *  side to move are exchanged if black has fewer pieces, and the
+     *  squares are then put in their canonical orientation (see
+     *  Symmetry.orientation). */
+    static long storedIndex(long black, long white, int side) {
+        if (Long.bitCount(black) < Long.bitCount(white)) {
+            return storedIndex(white, black, 1 - side);
+        }
+        int t = Symmetry.orientation(black, white);
+        return positionIndex(Symmetry.transform(black, t),
+                             Symmetry.transform(white, t), side);
+    }
+
+    /** Return the mask of the N squares SQS. */
+    private static long mask(int[] sqs, int n) {
+        long result = 0;
+        for (int i = 0; i < n; i += 1) {
+            result |= bit(sqs[i]);
+        }
+        return result;
+    }
+
+    /** Return the squares of MASK, in increasing order. */
+    private static int[] squares(long mask) {
+        int[] result = new int[Long.bitCount(mask)];
+        for (int i = 0; mask != 0; mask &= mask - 1, i += 1) {
+            result[i] = Long.numberOfTrailingZeros(mask);
+        }
+        return result;
+    }
+
+    /** Set BLACK[0 .. NB-1] and WHITE[0 .. NW-1] to the squares of the
+     *  position with index POSN in class (NB, NW), and return its side
+     *  to move. */
+    static int unindex(long posn, int[] black, int nb, int[] white, int nw) {
+        int side = (int) (posn & 1);
+        posn >>= 1;
+        long rw = posn % BINOM[NUM_SQUARES - nb][nw],
+            rb = posn / BINOM[NUM_SQUARES - nb][nw];
+        unrank(rb, black, nb);
+        unrank(rw, white, nw);
+        for (int i = 0, j = 0; i < nw; i += 1) {
+            while (j < nb && black[j] <= white[i] + j) {
+                j += 1;
+            }
+            white[i] += j;
+        }
+        return side;
+    }
+
+    /** Set SET[0 .. K-1] to the K-subset of rank R, in increasing
+     *  order. */
+    private static void unrank(long r, int[] set, int k) {
+        int c = NUM_SQUARES;
+        for (int i = k; i > 0; i -= 1) {
+            c -= 1;
+            while (BINOM[c][i] > r) {
+                c -= 1;
+            }
+            set[i - 1] = c;
+            r -= BINOM[c][i];
+        }
+    }
+
+    /** Return true iff the N squares in SQS form one connected group. */
+    private static boolean connected(int[] sqs, int n) {
+        int reached = 1, done = 0;
+        int[] queue = new int[n];
+        boolean[] seen = new boolean[n];
+        queue[0] = 0;
+        seen[0] = true;
+        while (done < reached) {
+            int s = sqs[queue[done++]];
+            for (int i = 0; i < n; i += 1) {
+                if (!seen[i] && Math.abs(COL[s] - COL[sqs[i]]) <= 1
+                    && Math.abs(ROW[s] - ROW[sqs[i]]) <= 1) {
+                    seen[i] = true;
+                    queue[reached++] = i;
+                }
+            }
+        }
+        return reached == n;
+    }
+
+    /** Return the value for the side to move (SIDE) of the position with
+     *  BLACK and WHITE pieces (NB and NW of them) if the game is over
+     *  there, and UNKNOWN otherwise.  As in Board.winner, a side that
+     *  connects both groups with its move wins. */
+    private static int terminal(int[] black, int nb, int[] white, int nw,
+                                int side) {
+        boolean bCon = connected(black, nb), wCon = connected(white, nw);
+        if (bCon && wCon || (side == 0 ? wCon : bCon)) {
+            return -1;
+        } else if (bCon || wCon) {
+            return 1;
+        }
+        return UNKNOWN;
+    }
+
+    /* Generation. */
+
+    /** Builds the tables for all classes with at most MAXPIECES pieces. */
+    private static class Generator {
+
+        /** A generator of tables with up to MAXPIECES pieces. */
+        Generator(int maxPieces) {
+            _maxPieces = maxPieces;
+        }
+
+        /** Compute all stored tables, smaller classes first. */
+        void run() {
+            for (int total = 4; total <= _maxPieces; total += 1) {
+                for (int nb = (total + 1) / 2; nb <= total - 2; nb += 1) {
+                    solve(nb, total - nb);
+                }
+            }
+        }
+
+        /** Compute the table for class (NB, NW) by retrograde passes:
+         *  pass P resolves exactly the positions won or lost in P moves,
+         *  using only successors resolved in earlier passes.  Only
+         *  positions stored at their own index (see storedIndex) are
+         *  solved, the others being marked OTHER until the end. */
+        void solve(int nb, int nw) {
+            long size = classSize(nb, nw);
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("class too large");
+            }
+            byte[] table = new byte[(int) size];
+            _tables.put(classKey(nb, nw), table);
+            int[] black = new int[nb], white = new int[nw];
+            for (int posn = 0; posn < size; posn += 1) {
+                int side = unindex(posn, black, nb, white, nw);
+                if (storedIndex(mask(black, nb), mask(white, nw), side)
+                    != posn) {
+                    table[posn] = OTHER;
+                } else {
+                    int v = terminal(black, nb, white, nw, side);
+                    table[posn] = (byte) (v == UNKNOWN ? 0 : v);
+                }
+            }
+            for (int pass = 1; pass <= MAX_DISTANCE; pass += 1) {
+                int resolved = 0;
+                for (int posn = 0; posn < size; posn += 1) {
+                    if (table[posn] == 0) {
+                        int side = unindex(posn, black, nb, white, nw);
+                        int v = backup(black, white, side, pass);
+                        if (v != 0) {
+                            table[posn] = (byte) v;
+                            resolved += 1;
+                        }
+                    }
+                }
+                debug(1, "class %dv%d pass %d: %d resolved", nb, nw, pass,
+                      resolved);
+                if (resolved == 0) {
+                    break;
+                }
+            }
+            for (int posn = 0; posn < size; posn += 1) {
+                if (table[posn] == OTHER) {
+                    table[posn] = 0;
+                }
+            }
+        }
+
+        /** Return the value in pass PASS of the undecided position with
+         *  BLACK and WHITE pieces and SIDE to move: PASS (as a value)
+         *  if some move leads to a position lost in fewer moves,
+         *  -PASS if every move leads to a position won in fewer moves,
+         *  and 0 otherwise. */
+        private int backup(int[] black, int[] white, int side, int pass) {
+            int[] mine = side == 0 ? black : white,
+                theirs = side == 0 ? white : black;
+            boolean allWon = true;
+            for (int i = 0; i < mine.length; i += 1) {
+                int from = mine[i];
+                for (int dir = 0; dir < 8; dir += 1) {
+                    int to = destination(from, dir, mine, theirs);
+                    if (to < 0) {
+                        continue;
+                    }
+                    int v = successor(black, white, side, i, to);
+                    if (v < 0 && -v <= pass) {
+                        return pass + 1;
+                    } else if (v <= 0 || v >= pass + 1) {
+                        allWon = false;
+                    }
+                }
+            }
+            return allWon ? -(pass + 1) : 0;
+        }
+
+        /** Return the square to which the piece at FROM may move in
+         *  direction DIR, where MINE and THEIRS are the squares of the
+         *  moving and other side, or -1 if there is no legal move. */
+        private int destination(int from, int dir, int[] mine,
+                                int[] theirs) {
+            int line = LINE[from][AXIS[dir]];
+            int count = 0;
+            for (int s : mine) {
+                count += LINE[s][AXIS[dir]] == line ? 1 : 0;
+            }
+            for (int s : theirs) {
+                count += LINE[s][AXIS[dir]] == line ? 1 : 0;
+            }
+            int[] ray = RAYS[from][dir];
+            if (count > ray.length) {
+                return -1;
+            }
+            int to = ray[count - 1];
+            for (int s : theirs) {
+                for (int k = 0; k < count - 1; k += 1) {
+                    if (ray[k] == s) {
+                        return -1;
+                    }
+                }
+            }
+            for (int s : mine) {
+                if (s == to) {
+                    return -1;
+                }
+            }
+            return to;
+        }
+
+        /** Return the value for the opponent of the position after SIDE
+         *  moves its piece number I to TO in the position with BLACK
+         *  and WHITE pieces. */
+        private int successor(int[] black, int[] white, int side, int i,
+                              int to) {
+            int[] mine = side == 0 ? black : white,
+                theirs = side == 0 ? white : black;
+            int n = 0, m = 0;
+            for (int s : theirs) {
+                if (s != to) {
+                    _rest[n++] = s;
+                }
+            }
+            for (int k = 0; k < mine.length; k += 1) {
+                if (k != i) {
+                    _moved[m++] = mine[k];
+                }
+            }
+            for (m = mine.length - 1; m > 0 && _moved[m - 1] > to; m -= 1) {
+                _moved[m] = _moved[m - 1];
+            }
+            _moved[m] = to;
+            int[] b = side == 0 ? _moved : _rest,
+                w = side == 0 ? _rest : _moved;
+            int nb = side == 0 ? mine.length : n,
+                nw = side == 0 ? n : mine.length;
+            int v = terminal(b, nb, w, nw, 1 - side);
+            if (v != UNKNOWN) {
+                return v;
+            }
+            byte[] table = _tables.get(storedClass(nb, nw));
+            return table[(int) storedIndex(mask(b, nb), mask(w, nw),
+                                           1 - side)];
+        }
+
+        /** Write all tables to the file named NAME. */
+        void write(String name) throws IOException {
+            ArrayList<Integer> keys = new ArrayList<>(_tables.keySet());
+            keys.sort(null);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int dataStart = 12 + 16 * keys.size();
+            int[][] offsets = new int[keys.size()][];
+            for (int c = 0; c < keys.size(); c += 1) {
+                byte[] table = _tables.get(keys.get(c));
+                int nblocks = (table.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+                offsets[c] = new int[nblocks + 1];
+                for (int b = 0; b < nblocks; b += 1) {
+                    offsets[c][b] = body.size();
+                    compress(table, b * BLOCK_SIZE,
+                             Math.min(table.length, (b + 1) * BLOCK_SIZE),
+                             body);
+                }
+                offsets[c][nblocks] = body.size();
+            }
+            int indexStart = dataStart + body.size();
+            try (DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(new FileOutputStream(name)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(keys.size());
+                int pos = indexStart;
+                for (int c = 0; c < keys.size(); c += 1) {
+                    out.writeInt(keys.get(c) / NUM_SQUARES);
+                    out.writeInt(keys.get(c) % NUM_SQUARES);
+                    out.writeInt(offsets[c].length - 1);
+                    out.writeInt(pos);
+                    pos += 4 * offsets[c].length;
+                }
+                body.writeTo(out);
+                for (int[] blockOffsets : offsets) {
+                    for (int off : blockOffsets) {
+                        out.writeInt(dataStart + off);
+                    }
+                }
+            }
+        }
+
+        /** Append TABLE[START .. END-1] as one block to OUT. */
+        private void compress(byte[] table, int start, int end,
+                              ByteArrayOutputStream out) {
+            int[] slot = new int[256];
+            byte[] palette = new byte[256];
+            int size = 0;
+            for (int i = start; i < end; i += 1) {
+                if (slot[table[i] & 0xff] == 0) {
+                    palette[size] = table[i];
+                    size += 1;
+                    slot[table[i] & 0xff] = size;
+                }
+            }
+            int bits = size == 1 ? 0 : size <= 2 ? 1 : size <= 4 ? 2
+                : size <= 16 ? 4 : 8;
+            out.write(bits);
+            out.write(size);
+            out.write(palette, 0, size);
+            if (bits == 0) {
+                return;
+            }
+            int perByte = 8 / bits, b = 0;
+            for (int i = start; i < end; i += 1) {
+                int k = i - start;
+                b |= (slot[table[i] & 0xff] - 1) << (k % perByte * bits);
+                if (k % perByte == perByte - 1 || i == end - 1) {
+                    out.write(b);
+                    b = 0;
+                }
+            }
+        }
+
+        /** Value marking, during generation, a position whose value is
+         *  stored at another index; never a real value. */
+        private static final byte OTHER = Byte.MIN_VALUE;
+
+        /** Largest number of pieces in any class. */
+        private final int _maxPieces;
+        /** Computed tables, by classKey. */
+        private final HashMap<Integer, byte[]> _tables = new HashMap<>();
+        /** Scratch lists of the squares of the moving side and of the
+         *  other side after a move. */
+        private final int[] _moved = new int[BINOM[0].length],
+            _rest = new int[BINOM[0].length];
+    }
+
+    /** Write to the file named NAME the tables for all positions with
+     *  at most MAXPIECES pieces. */
+    static void build(String name, int maxPieces) throws IOException {
+        Generator gen = new Generator(maxPieces);
+        gen.run();
+        gen.write(name);
+    }
+
+    /** Generate a tablebase, as directed by ARGS:
+     *      build OUT K
+     *  writes to OUT the tables for all positions with at most K pieces
+     *  (4 or 5 are practical), reporting progress as it goes. */
+    public static void main(String... args) {
+        if (args.length != 3 || !args[0].equals("build")) {
+            System.err.println("Usage: java loa.Tablebase build OUT K");
+            System.exit(1);
+        }
+        setMessageLevel(1);
+        try {
+            build(args[1], Integer.parseInt(args[2]));
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** BINOM[N][K] is N choose K, for K < 8. */
+    private static final long[][] BINOM = new long[NUM_SQUARES + 1][8];
+
+    static {
+        for (int n = 0; n <= NUM_SQUARES; n += 1) {
+            BINOM[n][0] = 1;
+            for (int k = 1; k < BINOM[n].length && n > 0; k += 1) {
+                BINOM[n][k] = BINOM[n - 1][k - 1] + BINOM[n - 1][k];
+            }
+        }
+    }
+
+    /** The mapped file contents. */
+    private final MappedByteBuffer _data;
+    /** Offsets of block indices, by classKey. */
+    private final HashMap<Integer, Integer> _classes = new HashMap<>();
+    /** Largest number of pieces covered. */
+    private int _maxPieces;
+}
@@ -0,0 +1,97 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.util.Arrays;
+
+/** A fixed-size table of search results, keyed by Board.hashKey().
+ *  Each key maps to one slot; a new result replaces the old one unless
+ *  the old one is for the same position and was searched deeper.
+ *  @author Manaal
+ */
+class TranspositionTable {
+
+    /** Bound type: the stored value is exact. */
+    static final int EXACT = 0;
+    /** Bound type: the true value is at least the stored value. */
+    static final int LOWER = 1;
+    /** Bound type: the true value is at most the stored value. */
+    static final int UPPER = 2;
+
+    /** A table with 2**LOGSIZE slots. */
+    TranspositionTable(int logSize) {
+        int size = 1 << logSize;
+        _mask = size - 1;
+        _keys = new long[size];
+        _values = new int[size];
+        _depths = new byte[size];
+        _bounds = new byte[size];
+        _moves = new int[size];
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_moves, 0);
+        Arrays.fill(_depths, (byte) 0);
+        Arrays.fill(_keys, 0L);
+    }
+
+    /** Return the slot holding an entry for KEY, or -1 if there is
+     *  none. */
+    int probe(long key) {
+        int slot = (int) key & _mask;
+        if (_keys[slot] == key && _depths[slot] > 0) {
+            return slot;
+        }
+        return -1;
+    }
+
+    /** Return the value stored at SLOT. */
+    int value(int slot) {
+        return _values[slot];
+    }
+
+    /** Return the depth to which the entry at SLOT was searched. */
+    int depth(int slot) {
+        return _depths[slot] - 1;
+    }
+
+    /** Return the bound type (EXACT, LOWER, UPPER) of the entry at
+     *  SLOT. */
+    int bound(int slot) {
+        return _bounds[slot];
+    }
+
+    /** Return the Move.code() of the best move recorded at SLOT, or 0 if
+     *  there is none. */
+    int move(int slot) {
+        return _moves[slot];
+    }
+
+    /** Record that the position with KEY, searched to DEPTH, has VALUE
+     *  of type BOUND, with best move whose code is MOVE (0 if none). */
+    void store(long key, int value, int depth, int bound, int move) {
+        int slot = (int) key & _mask;
+        if (_keys[slot] == key && depth(slot) > depth) {
+            return;
+        }
+        _keys[slot] = key;
+        _values[slot] = value;
+        _depths[slot] = (byte) (depth + 1);
+        _bounds[slot] = (byte) bound;
+        _moves[slot] = move;
+    }
+
+    /** Mask selecting a slot from a key. */
+    private final int _mask;
+    /** Keys of the stored positions. */
+    private final long[] _keys;
+    /** Stored values. */
+    private final int[] _values;
+    /** Stored depths plus one (0 marks an empty slot). */
+    private final byte[] _depths;
+    /** Stored bound types. */
+    private final byte[] _bounds;
+    /** Stored best moves, as Move.code()s. */
+    private final int[] _moves;
+}
@@ -0,0 +1,336 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+import static loa.Piece.*;
+
+/** The tool that fits the weights of MachinePlayer's built-in evaluation
+ *  to the results of recorded games, by the method of Texel: the score
+ *  S of each position is turned into a predicted result (1 for a white
+ *  win, 0 for a black win, 1/2 for a tie) by the logistic function
+ *  1 / (1 + exp(-K * S)), and the weights are chosen to minimize the
+ *  mean squared difference between predicted and actual results.  K is
+ *  first fitted to the current weights, and then held fixed.
+ *
+ *  Work is in two steps (see main).  The first replays game logs (the
+ *  command logs written by --log) or game record files (--record) and
+ *  writes every position of every finished game, with its result, as a
+ *  compact position record.  The
+ *  second maps a record file into memory, computes the terms of the
+ *  evaluation of every position, and improves the weights by gradient
+ *  descent, computing each gradient and error in parallel over the
+ *  positions, and writes a weights file for MachinePlayer.readWeights.
+ *
+ *  Record file layout (big-endian): MAGIC, VERSION, and the number of
+ *  records, followed by RECORD_SIZE-byte records, each the occupancy
+ *  masks of black and of white (as from Board.occupied) and a byte
+ *  holding the side to move (bit 0, set for white) and the result (the
+ *  rest: GameRecord.BLACK_WINS, TIE, or WHITE_WINS).
+ *  @author Manaal
+ */
+class Tuner {
+
+    /** First word of every record file ("LOAS"). */
+    static final int MAGIC = 0x4c4f4153;
+    /** Format version written and accepted. */
+    static final int VERSION = 1;
+    /** Size of the file header in bytes. */
+    static final int HEADER_SIZE = 12;
+    /** Size of one record in bytes. */
+    static final int RECORD_SIZE = 17;
+
+    /** Write the positions of each finished game in the game logs or
+     *  game record files named SOURCES, with their results, to the
+     *  position file OUT.  Returns the number of positions written. */
+    static long extract(String out, String... sources) throws IOException {
+        long[] count = { 0 };
+        try (DataOutputStream records = new DataOutputStream(
+                 new BufferedOutputStream(new FileOutputStream(out)))) {
+            records.writeInt(MAGIC);
+            records.writeInt(VERSION);
+            records.writeInt(0);
+            for (String source : sources) {
+                GameRecord.forEach(source, game -> {
+                    if (game.result() != GameRecord.UNFINISHED) {
+                        count[0] += write(game, records);
+                    }
+                });
+            }
+        } catch (UncheckedIOException excp) {
+            throw excp.getCause();
+        }
+        if (count[0] > Integer.MAX_VALUE) {
+            throw new IOException("too many positions");
+        }
+        try (FileChannel chan = FileChannel.open(Paths.get(out),
+                                                 StandardOpenOption.WRITE)) {
+            chan.write(ByteBuffer.allocate(4).putInt(0, (int) count[0]), 8);
+        }
+        return count[0];
+    }
+
+    /** Write a record of each position of GAME, before each of its moves,
+     *  to OUT, and return the number written. */
+    private static int write(GameRecord game, DataOutputStream out) {
+        try {
+            Board board = game.start();
+            for (int k = 0; k < game.size(); k += 1) {
+                out.writeLong(board.occupied(BP));
+                out.writeLong(board.occupied(WP));
+                out.writeByte((board.turn() == WP ? 1 : 0)
+                              | game.result() << 1);
+                board.makeMove(game.move(k));
+            }
+            return game.size();
+        } catch (IOException excp) {
+            throw new UncheckedIOException(excp);
+        }
+    }
+
+    /** A tuner for the positions in the record file named NAME. */
+    Tuner(String name) throws IOException {
+        try (FileChannel chan =
+             FileChannel.open(Paths.get(name), StandardOpenOption.READ)) {
+            if (chan.size() > Integer.MAX_VALUE) {
+                throw new IOException("record file too large: " + name);
+            }
+            MappedByteBuffer data =
+                chan.map(FileChannel.MapMode.READ_ONLY, 0, chan.size());
+            if (chan.size() < HEADER_SIZE || data.getInt(0) != MAGIC
+                || data.getInt(4) != VERSION
+                || chan.size() != HEADER_SIZE
+                    + (long) data.getInt(8) * RECORD_SIZE) {
+                throw new IOException("not a record file: " + name);
+            }
+            _size = data.getInt(8);
+            _terms = new int[MachinePlayer.NUM_TERMS][_size];
+            _results = new float[_size];
+            IntStream.range(0, chunks()).parallel().forEach(c -> {
+                int[] terms = new int[MachinePlayer.NUM_TERMS];
+                for (int i = first(c); i < first(c + 1); i += 1) {
+                    int pos = HEADER_SIZE + i * RECORD_SIZE;
+                    MachinePlayer.terms(data.getLong(pos),
+                                        data.getLong(pos + 8), terms);
+                    for (int t = 0; t < terms.length; t += 1) {
+                        _terms[t][i] = terms[t];
+                    }
+                    _results[i] = (data.get(pos + 16) >> 1) / 2.0f;
+                }
+            });
+        }
+    }
+
+    /** Return the number of positions. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the mean squared error of predicting the results with
+     *  WEIGHTS and scaling constant K. */
+    double error(double[] weights, double k) {
+        return IntStream.range(0, chunks()).parallel()
+            .mapToDouble(c -> {
+                double sum = 0;
+                for (int i = first(c); i < first(c + 1); i += 1) {
+                    double err = predict(weights, k, i) - _results[i];
+                    sum += err * err;
+                }
+                return sum;
+            }).sum() / _size;
+    }
+
+    /** Return the gradient of error(WEIGHTS, K) with respect to the
+     *  weights. */
+    double[] gradient(double[] weights, double k) {
+        double[] gradient = IntStream.range(0, chunks()).parallel()
+            .mapToObj(c -> {
+                double[] sum = new double[weights.length];
+                for (int i = first(c); i < first(c + 1); i += 1) {
+                    double p = predict(weights, k, i);
+                    double factor = (p - _results[i]) * p * (1 - p);
+                    for (int t = 0; t < weights.length; t += 1) {
+                        sum[t] += factor * _terms[t][i];
+                    }
+                }
+                return sum;
+            }).reduce(new double[weights.length], Tuner::add);
+        for (int t = 0; t < gradient.length; t += 1) {
+            gradient[t] *= 2 * k / _size;
+        }
+        return gradient;
+    }
+
+    /** Return the value of K that minimizes error(WEIGHTS, K). */
+    double fitK(double[] weights) {
+        double lo = 0, hi = 1;
+        while (error(weights, 2 * hi) < error(weights, hi)) {
+            hi *= 2;
+        }
+        hi *= 2;
+        for (int i = 0; i < K_STEPS; i += 1) {
+            double a = lo + (hi - lo) / 3, b = hi - (hi - lo) / 3;
+            if (error(weights, a) < error(weights, b)) {
+                hi = b;
+            } else {
+                lo = a;
+            }
+        }
+        return (lo + hi) / 2;
+    }
+
+    /** Improve WEIGHTS for K by PASSES steps of gradient descent, each
+     *  step's size adapted separately for each weight from the signs of
+     *  the successive gradients (the "resilient" method), reporting
+     *  progress on REPORT. */
+    void descend(double[] weights, double k, int passes, PrintStream report) {
+        double[] step = new double[weights.length];
+        double[] last = new double[weights.length];
+        for (int t = 0; t < weights.length; t += 1) {
+            step[t] = Math.max(Math.abs(weights[t]), 1) * INITIAL_STEP;
+        }
+        for (int pass = 1; pass <= passes; pass += 1) {
+            double[] gradient = gradient(weights, k);
+            for (int t = 0; t < weights.length; t += 1) {
+                if (gradient[t] * last[t] > 0) {
+                    step[t] *= GROW;
+                } else if (gradient[t] * last[t] < 0) {
+                    step[t] *= SHRINK;
+                }
+                weights[t] -= Math.signum(gradient[t]) * step[t];
+                last[t] = gradient[t];
+            }
+            if (pass % REPORT_INTERVAL == 0 || pass == passes) {
+                report.printf("pass %d: error %.6f%n", pass,
+                              error(weights, k));
+            }
+        }
+    }
+
+    /** Return the predicted result of position I with WEIGHTS and K. */
+    private double predict(double[] weights, double k, int i) {
+        double score = 0;
+        for (int t = 0; t < weights.length; t += 1) {
+            score += weights[t] * _terms[t][i];
+        }
+        return 1 / (1 + Math.exp(-k * score));
+    }
+
+    /** Return the number of chunks into which the positions are divided
+     *  for parallel work. */
+    private int chunks() {
+        return (_size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+    }
+
+    /** Return the index of the first position of chunk C. */
+    private int first(int c) {
+        return (int) Math.min((long) c * CHUNK_SIZE, _size);
+    }
+
+    /** Add Y to X elementwise, returning X. */
+    private static double[] add(double[] x, double[] y) {
+        double[] sum = x.clone();
+        for (int i = 0; i < sum.length; i += 1) {
+            sum[i] += y[i];
+        }
+        return sum;
+    }
+
+    /** Extract positions or fit weights, as directed by ARGS:
+     *      extract OUT LOG...
+     *  writes to the record file OUT the positions of the finished games
+     *  in the command logs or game record files LOG...;
+     *      tune RECORDS OUT [PASSES]
+     *  fits the weights, starting from the current ones, to the positions
+     *  in the record file RECORDS with PASSES (default 200) steps of
+     *  descent, and writes them to the weights file OUT. */
+    public static void main(String... args) {
+        try {
+            if (args.length >= 3 && args[0].equals("extract")) {
+                String[] logs = new String[args.length - 2];
+                System.arraycopy(args, 2, logs, 0, logs.length);
+                System.out.printf("%d positions%n", extract(args[1], logs));
+                return;
+            } else if ((args.length == 3 || args.length == 4)
+                       && args[0].equals("tune")) {
+                int passes = args.length == 4 ? Integer.parseInt(args[3])
+                    : DEFAULT_PASSES;
+                tune(args[1], args[2], passes);
+                return;
+            }
+        } catch (IOException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+        System.err.println("Usage: java loa.Tuner extract OUT LOG...");
+        System.err.println("       java loa.Tuner tune RECORDS OUT [PASSES]");
+        System.exit(1);
+    }
+
+    /** Fit the weights to the positions in the record file RECORDS with
+     *  PASSES steps of descent, and write them to the weights file
+     *  OUT. */
+    private static void tune(String records, String out, int passes)
+        throws IOException {
+        Tuner tuner = new Tuner(records);
+        int[] current = MachinePlayer.weights();
+        double[] weights = new double[current.length];
+        for (int t = 0; t < weights.length; t += 1) {
+            weights[t] = current[t];
+        }
+        double k = tuner.fitK(weights);
+        System.out.printf("%d positions, K = %.6f, error %.6f%n",
+                          tuner.size(), k, tuner.error(weights, k));
+        tuner.descend(weights, k, passes, System.out);
+        double largest = 0;
+        for (double w : weights) {
+            largest = Math.max(largest, Math.abs(w));
+        }
+        double scale = largest == 0 ? 1 : WEIGHT_RESOLUTION / largest;
+        try (PrintStream file = new PrintStream(out)) {
+            file.printf("# Fitted to %d positions; error %.6f.%n",
+                        tuner.size(), tuner.error(weights, k));
+            for (int t = 0; t < weights.length; t += 1) {
+                file.printf("%s %d%n", MachinePlayer.TERM_NAMES[t],
+                            Math.round(weights[t] * scale));
+            }
+        }
+    }
+
+    /** Number of positions handled together by one parallel task. */
+    private static final int CHUNK_SIZE = 1 << 14;
+    /** Number of steps of the search for K. */
+    private static final int K_STEPS = 60;
+    /** Default number of descent steps. */
+    private static final int DEFAULT_PASSES = 200;
+    /** First step of each weight, as a fraction of its size. */
+    private static final double INITIAL_STEP = 0.05;
+    /** Factors by which a step grows while the gradient keeps its sign,
+     *  and shrinks when it changes. */
+    private static final double GROW = 1.2, SHRINK = 0.5;
+    /** Number of descent steps between reports. */
+    private static final int REPORT_INTERVAL = 20;
+    /** Size of the largest weight written.  A linear evaluation chooses
+     *  the same moves whatever its scale, so weights are scaled to keep
+     *  their ratios after rounding. */
+    private static final int WEIGHT_RESOLUTION = 100;
+
+    /** Number of positions. */
+    private final int _size;
+    /** _terms[T][I] is term T of the evaluation of position I. */
+    private final int[][] _terms;
+    /** Actual result of each position. */
+    private final float[] _results;
+}
@@ -0,0 +1,92 @@
+/* Skeleton Copyright (C) 2015, 2020 Paul N. Hilfinger and the Regents of the
+ * University of California.  All rights reserved. */
+package loa;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorSpecies;
+
+import static jdk.incubator.vector.VectorOperators.ASHR;
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+import static jdk.incubator.vector.VectorOperators.XOR;
+import static loa.Square.*;
+
+/** A LeafEvaluator that computes the features of as many positions at a
+ *  time as there are 64-bit lanes in the machine's vectors.  The JDK's
+ *  vector API (as of Java 17) has no lane-wise bit count, so counts use
+ *  the usual shift-and-mask reduction.  Loaded only through
+ *  LeafEvaluator.create(), so that the program runs without the
+ *  jdk.incubator.vector module.
+ *  @author Manaal
+ */
+class VectorLeafEvaluator extends LeafEvaluator {
+
+    @Override
+    boolean vectorized() {
+        return true;
+    }
+
+    @Override
+    void weightedCount(long[] pieces, int from, int to, long[] masks,
+                       long[] result) {
+        int i;
+        for (i = from; i + SPECIES.length() <= to; i += SPECIES.length()) {
+            LongVector occupied = LongVector.fromArray(SPECIES, pieces, i);
+            LongVector sum = ZERO;
+            for (int b = 0; b < masks.length; b += 1) {
+                sum = sum.add(bitCount(occupied.and(masks[b]))
+                              .lanewise(LSHL, b));
+            }
+            sum.intoArray(result, i);
+        }
+        super.weightedCount(pieces, i, to, masks, result);
+    }
+
+    @Override
+    void euler(long[] pieces, int from, int to, long[] result) {
+        int i;
+        for (i = from; i + SPECIES.length() <= to; i += SPECIES.length()) {
+            LongVector occupied = LongVector.fromArray(SPECIES, pieces, i);
+            LongVector a = occupied.and(QUAD_CORNERS),
+                b = occupied.lanewise(LSHR, 1).and(QUAD_CORNERS),
+                c = occupied.lanewise(LSHR, BOARD_SIZE).and(QUAD_CORNERS),
+                d = occupied.lanewise(LSHR, BOARD_SIZE + 1)
+                    .and(QUAD_CORNERS);
+            LongVector odd = a.lanewise(XOR, b).lanewise(XOR, c)
+                .lanewise(XOR, d);
+            LongVector pairs = a.and(b).or(c.and(d));
+            LongVector rowPairs =
+                occupied.lanewise(XOR, occupied.lanewise(LSHR, 1));
+            LongVector colPairs =
+                occupied.lanewise(XOR, occupied.lanewise(LSHR, BOARD_SIZE));
+            LongVector ones = bitCount(odd.and(pairs.not()))
+                .add(bitCount(rowPairs.and(EDGE_ROW_PAIRS)))
+                .add(bitCount(colPairs.and(EDGE_COLUMN_PAIRS)))
+                .add(bitCount(occupied.and(CORNERS)));
+            LongVector threes = bitCount(odd.and(pairs));
+            LongVector diagonals =
+                bitCount(a.and(d).and(b.or(c).not())
+                         .or(b.and(c).and(a.or(d).not())));
+            ones.sub(threes).sub(diagonals.lanewise(LSHL, 1))
+                .lanewise(ASHR, 2).intoArray(result, i);
+        }
+        super.euler(pieces, i, to, result);
+    }
+
+    /** Return the number of set bits in each lane of X. */
+    private static LongVector bitCount(LongVector x) {
+        x = x.sub(x.lanewise(LSHR, 1).and(0x5555555555555555L));
+        x = x.and(0x3333333333333333L)
+            .add(x.lanewise(LSHR, 2).and(0x3333333333333333L));
+        x = x.add(x.lanewise(LSHR, 4)).and(0x0f0f0f0f0f0f0f0fL);
+        x = x.add(x.lanewise(LSHR, 8));
+        x = x.add(x.lanewise(LSHR, 16));
+        return x.add(x.lanewise(LSHR, 32)).and(0x7f);
+    }
+
+    /** The vector shape used. */
+    private static final VectorSpecies<Long> SPECIES =
+        LongVector.SPECIES_PREFERRED;
+    /** All lanes zero. */
+    private static final LongVector ZERO = LongVector.zero(SPECIES);
+}